@@ -1,12 +1,27 @@
 package com.kayblitz.uttt;
 
+import java.io.PrintStream;
+
 public abstract class Bot {
 	protected Field field;
 	protected int botId, opponentId;
+	/** Stream the bot logs its moves to, null to log nothing **/
+	private PrintStream log = System.err;
 	
 	public Bot() {
 		field = new Field();
 	}
 	
-	public abstract Move makeMove(int timebank);
+	/** Sets the stream the bot logs its moves to, null to log nothing such as in games played offline **/
+	public void setLog(PrintStream log) {
+		this.log = log;
+	}
+	
+	protected void log(String message) {
+		if (log != null)
+			log.println(message);
+	}
+	
+	/** Returns the move to make as a cell index (row * Field.COLS + column) **/
+	public abstract int makeMove(int timebank);
 }
@@ -17,8 +17,7 @@
 
 package com.kayblitz.uttt;
 
-import java.util.Scanner;
-
+import com.kayblitz.uttt.bot.Evaluation;
 import com.kayblitz.uttt.bot.mcts.RAVEHeuristicNode;
 import com.kayblitz.uttt.bot.mcts.RAVETree;
 import com.kayblitz.uttt.bot.mcts.Simulation;
@@ -33,50 +32,87 @@ import com.kayblitz.uttt.bot.mcts.Simulation;
  */
 
 public class BotParser {
-	private final Scanner scanner;
+	private static final byte[] UPDATE = ProtocolReader.getBytes("update"), GAME = ProtocolReader.getBytes("game"),
+			ROUND = ProtocolReader.getBytes("round"), MOVE = ProtocolReader.getBytes("move"),
+			FIELD = ProtocolReader.getBytes("field"), MACROBOARD = ProtocolReader.getBytes("macroboard"),
+			RAVE = ProtocolReader.getBytes("rave"), RAVE_HEURISTICS = ProtocolReader.getBytes("raveheuristics"),
+			SIMULATION_CONSTANTS = ProtocolReader.getBytes("simulationconstants"),
+			ACTION = ProtocolReader.getBytes("action"), SETTINGS = ProtocolReader.getBytes("settings"),
+			YOUR_BOTID = ProtocolReader.getBytes("your_botid");
+	
+	private final ProtocolReader reader;
 	private final Bot bot;
+	/** Reused buffer for the field and macroboard values **/
+	private final int[] values;
 
 	public BotParser(Bot bot) {
-		this.scanner = new Scanner(System.in);
+		this.reader = new ProtocolReader(System.in);
 		this.bot = bot;
+		values = new int[Field.COLS * Field.ROWS];
+		Evaluation.loadTables();
 	}
 
 	public void run() {
-		while (scanner.hasNextLine()) {
-			String line = scanner.nextLine();
-			if (line.length() == 0)
+		while (reader.readLine()) {
+			if (reader.isEmptyLine())
 				continue;
 			
-			String[] parts = line.split(" ");
-			if (parts[0].equals("update")) { /* new game data */
-				if (parts[1].equals("game")) {
-					bot.field.parseGameData(parts[2], parts[3]);
-				} else if (parts[1].equals("rave")) {
-					RAVETree.EXPLORATION_CONSTANT = Double.parseDouble(parts[2]);
-					RAVETree.RAVE_CONSTANT = Double.parseDouble(parts[3]);
-				} else if (parts[1].equals("raveheuristics")) {
-					RAVEHeuristicNode.HEURISTIC_MULTIPLIER = Double.parseDouble(parts[2]);
-					RAVEHeuristicNode.UCT_CONFIDENCE = Double.parseDouble(parts[3]);
-					RAVEHeuristicNode.AMAF_CONFIDENCE = Double.parseDouble(parts[4]);
-				} else if (parts[1].equals("simulationconstants")) {
-					Simulation.UCT_EPT_MAX_MOVES = Integer.parseInt(parts[2]);
-					Simulation.RAVE_EPT_MAX_MOVES = Integer.parseInt(parts[3]);
-					Simulation.EPT_WIN_LOSS_THRESHOLD = Double.parseDouble(parts[4]);
+			reader.nextToken();
+			if (reader.tokenEquals(UPDATE)) { /* new game data */
+				reader.nextToken();
+				if (reader.tokenEquals(GAME)) {
+					updateGameData();
+				} else if (reader.tokenEquals(RAVE)) {
+					RAVETree.EXPLORATION_CONSTANT = reader.nextDouble();
+					RAVETree.RAVE_CONSTANT = reader.nextDouble();
+				} else if (reader.tokenEquals(RAVE_HEURISTICS)) {
+					RAVEHeuristicNode.HEURISTIC_MULTIPLIER = reader.nextDouble();
+					RAVEHeuristicNode.UCT_CONFIDENCE = reader.nextDouble();
+					RAVEHeuristicNode.AMAF_CONFIDENCE = reader.nextDouble();
+				} else if (reader.tokenEquals(SIMULATION_CONSTANTS)) {
+					Simulation.UCT_EPT_MAX_MOVES = reader.nextInt();
+					Simulation.RAVE_EPT_MAX_MOVES = reader.nextInt();
+					Simulation.EPT_WIN_LOSS_THRESHOLD = reader.nextDouble();
 				}
-			} else if (parts[0].equals("action")) {
-				if (parts[1].equals("move")) { /* move requested */
-					int timebank = Integer.parseInt(parts[2]);
-					Move move = bot.makeMove(timebank);
-					System.out.println("place_move " + move.column + " " + move.row);
+			} else if (reader.tokenEquals(ACTION)) {
+				reader.nextToken();
+				if (reader.tokenEquals(MOVE)) { /* move requested */
+					int timebank = reader.nextInt();
+					FieldState state = bot.field.saveState();
+					int move = bot.makeMove(timebank);
+					System.out.println("place_move " + move % Field.COLS + " " + move / Field.COLS);
+					// keep our own move so the next field update only differs by the opponent's move
+					bot.field.restoreState(state);
+					bot.field.makeMove(move, bot.botId, false);
 				}
-			} else if (parts[0].equals("settings")) {
-				if (parts[1].equals("your_botid")) {
-					bot.botId = Integer.parseInt(parts[2]);
+			} else if (reader.tokenEquals(SETTINGS)) {
+				reader.nextToken();
+				if (reader.tokenEquals(YOUR_BOTID)) {
+					bot.botId = reader.nextInt();
 					bot.opponentId = bot.botId == 1 ? 2 : 1;
 				}
 			} else { 
-				System.out.println("Unknown command: " + line);
+				System.out.println("Unknown command: " + reader.getLine());
 			}
 		}
 	}
+	
+	/** Fills the field straight from the "update game" values, see {@link Field#parseGameData(String, String)} **/
+	private void updateGameData() {
+		reader.nextToken();
+		if (reader.tokenEquals(ROUND)) {
+			bot.field.setRoundNum(reader.nextInt());
+		} else if (reader.tokenEquals(MOVE)) {
+			bot.field.setMoveNum(reader.nextInt());
+			System.err.println("Move " + bot.field.getMoveNum());
+		} else if (reader.tokenEquals(FIELD)) {
+			if (reader.nextValues(values) != Field.COLS * Field.ROWS)
+				throw new RuntimeException("Invalid field: " + reader.getLine());
+			bot.field.updateField(values);
+		} else if (reader.tokenEquals(MACROBOARD)) {
+			if (reader.nextValues(values) != 9)
+				throw new RuntimeException("Invalid macroboard: " + reader.getLine());
+			bot.field.checkMacroField(values);
+		}
+	}
 }
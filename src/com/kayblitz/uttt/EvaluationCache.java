@@ -0,0 +1,119 @@
+package com.kayblitz.uttt;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size cache of evaluations keyed by {@link Field#getHash()}. Keys and values live in preallocated parallel
+ * arrays, so storing and probing neither box nor allocate, and the table never grows. Entries are grouped in
+ * buckets of two: a new entry goes into the first slot and moves the previous one to the second, so an entry
+ * is only lost after two newer entries landed in its bucket. Different positions with the same hash share an
+ * entry, which is accepted for a heuristic value.
+ */
+public class EvaluationCache {
+
+	/** Returned by {@link #probe(long)} when the position is not cached, evaluations are never NaN **/
+	public static final double MISS = Double.NaN;
+	/** Bytes taken by one entry, the key and the value **/
+	private static final int ENTRY_BYTES = 16;
+
+	/** Key 0 marks an empty slot, a position hashing to 0 is never cached **/
+	private final long[] keys;
+	private final double[] values;
+	/** Mask of the index of the first slot of a bucket **/
+	private final int bucketMask;
+	private int entries;
+	private long hits, misses, totalHits, totalMisses;
+
+	/**
+	 * Creates a cache with as many entries as fit into the memory budget, rounded down to a power of 2
+	 * @param budgetBytes : memory to use for the entries, at least 32 bytes
+	 */
+	public EvaluationCache(long budgetBytes) {
+		long size = Long.highestOneBit(Math.min(budgetBytes / ENTRY_BYTES, 1 << 30));
+		if (size < 2)
+			throw new RuntimeException("Evaluation cache budget too small: " + budgetBytes);
+		keys = new long[(int) size];
+		values = new double[(int) size];
+		bucketMask = (int) size - 2;
+	}
+
+	/** Returns the cached value of the position, or {@link #MISS} **/
+	public double probe(long key) {
+		int i = (int) key & bucketMask;
+		if (key != 0) {
+			if (keys[i] == key) {
+				hits++;
+				return values[i];
+			}
+			if (keys[i + 1] == key) {
+				hits++;
+				return values[i + 1];
+			}
+		}
+		misses++;
+		return MISS;
+	}
+
+	/** Stores the value of the position, moving the newest entry of its bucket to the second slot **/
+	public void store(long key, double value) {
+		if (key == 0)
+			return;
+		int i = (int) key & bucketMask;
+		if (keys[i] != key) {
+			if (keys[i + 1] == 0)
+				entries++;
+			keys[i + 1] = keys[i];
+			values[i + 1] = values[i];
+			keys[i] = key;
+		}
+		values[i] = value;
+	}
+
+	/** Removes every entry, for example after the evaluation weights changed **/
+	public void clear() {
+		Arrays.fill(keys, 0);
+		entries = 0;
+	}
+
+	/** Returns the number of entries the cache holds at most **/
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	/** Returns the number of slots in use **/
+	public int getEntries() {
+		return entries;
+	}
+
+	/** Returns the number of probes that found the position since the last {@link #clearCurrentLog()} **/
+	public long getCurrentHits() {
+		return hits;
+	}
+
+	/** Returns the number of probes that did not find the position since the last {@link #clearCurrentLog()} **/
+	public long getCurrentMisses() {
+		return misses;
+	}
+
+	public long getTotalHits() {
+		return totalHits + hits;
+	}
+
+	public long getTotalMisses() {
+		return totalMisses + misses;
+	}
+
+	public void clearCurrentLog() {
+		totalHits += hits;
+		totalMisses += misses;
+		hits = 0;
+		misses = 0;
+	}
+
+	@Override
+	public String toString() {
+		long probes = hits + misses;
+		return String.format("Cache hits %d, misses %d, hit rate %.1f%%, entries %d / %d", hits, misses,
+				probes > 0 ? 100.0 * hits / probes : 0.0, entries, keys.length);
+	}
+}
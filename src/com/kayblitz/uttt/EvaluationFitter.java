@@ -0,0 +1,508 @@
+package com.kayblitz.uttt;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.kayblitz.uttt.bot.Evaluation;
+import com.kayblitz.uttt.bot.EvaluationWeights;
+import com.kayblitz.uttt.bot.MinimaxBot;
+import com.kayblitz.uttt.bot.TableEvaluation;
+import com.kayblitz.uttt.bot.ValueNetwork;
+
+/**
+ * Fits the weights of a linear evaluation (see {@link EvaluationWeights}) to the outcomes of played games by
+ * logistic regression: the probability that player 1 wins a position is modelled as sigmoid(scale * evaluation),
+ * a tie counting as half a win. The scale is fitted first with the current weights and then kept, so the fitted
+ * weights stay in the units of the evaluation. The weights are then fitted with Adam on mini-batches, the
+ * gradient of each batch being summed across the fork/join pool.
+ *
+ * Usage: EvaluationFitter generate output games [depth] [type] [random plies] to write self-play positions of
+ * {@link MinimaxBot}, one "position result" line each, the position as {@link Field#toCompactString()} and the
+ * result as the winner or 0 for a tie, and a blank line after each game. EvaluationFitter fit data weights [type]
+ * [epochs] [batch size] [learning rate] to fit the weights of the type to such a file and write them for
+ * {@link EvaluationWeights#load(String)}. EvaluationFitter train data network [hidden] [epochs] [batch size]
+ * [learning rate] to train the network of the {@link Evaluation#NETWORK} evaluation on such a file instead, see
+ * {@link NetworkFitter}, and write it for {@link ValueNetwork#load(String)}. EvaluationFitter match a b pairs
+ * [depth] [random plies] to play weights against each other, each pair of games starting from the same random
+ * opening with the sides swapped. The weights are files, a network file ending in .bin or an evaluation type.
+ */
+public class EvaluationFitter {
+
+	/** Every tenth game of a data file is held out to measure the fit **/
+	static final int VALIDATION_EVERY = 10;
+	static final double BETA1 = 0.9, BETA2 = 0.999, EPSILON = 1e-8;
+
+	public static void main(String[] args) {
+		if (args.length < 3 || !args[0].equals("generate") && !args[0].equals("fit") && !args[0].equals("train")
+				&& !args[0].equals("match") || args[0].equals("match") && args.length < 4) {
+			System.err.println("Usage: generate output games [depth] [type] [random plies]");
+			System.err.println("       fit data weights [type] [epochs] [batch size] [learning rate]");
+			System.err.println("       train data network [hidden] [epochs] [batch size] [learning rate]");
+			System.err.println("       match a b pairs [depth] [random plies]");
+			return;
+		}
+		try {
+			if (args[0].equals("generate")) {
+				generate(args[1], Integer.parseInt(args[2]), args.length > 3 ? Integer.parseInt(args[3]) : 3,
+						args.length > 4 ? Integer.parseInt(args[4]) : Evaluation.COMPREHENSIVE,
+						args.length > 5 ? Integer.parseInt(args[5]) : 6);
+			} else if (args[0].equals("match")) {
+				Player a = getPlayer(args[1], null);
+				match(a, getPlayer(args[2], a), Integer.parseInt(args[3]), args.length > 4 ? Integer.parseInt(args[4])
+						: 3, args.length > 5 ? Integer.parseInt(args[5]) : 6);
+			} else if (args[0].equals("train")) {
+				NetworkFitter.train(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 32,
+						args.length > 4 ? Integer.parseInt(args[4]) : 10, args.length > 5 ? Integer.parseInt(args[5])
+						: 256, args.length > 6 ? Double.parseDouble(args[6]) : 0.001);
+			} else {
+				fit(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : Evaluation.COMPREHENSIVE,
+						args.length > 4 ? Integer.parseInt(args[4]) : 20, args.length > 5 ? Integer.parseInt(args[5])
+						: 4096, args.length > 6 ? Double.parseDouble(args[6]) : 0.02);
+			}
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid number: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Plays games of {@link MinimaxBot} against itself across the fork/join pool and writes their positions.
+	 * The first plies are random so the games differ, their positions are not written. The bots do not log.
+	 */
+	public static void generate(String path, int games, int depth, int type, int randomPlies) {
+		long start = System.nanoTime();
+		try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(path)))) {
+			Evaluation.loadTables();
+			GameTask[] tasks = new GameTask[games];
+			for (int i = 0; i < games; i++) {
+				tasks[i] = new GameTask(writer, depth, type, randomPlies);
+			}
+			ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+			if (writer.checkError())
+				throw new IOException("Write failed");
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write positions to " + path, e);
+		}
+		System.out.println(String.format("Games %d, Elapsed %.3f", games, (System.nanoTime() - start) / 1e9));
+	}
+
+	/**
+	 * Plays pairs of games of {@link MinimaxBot} with the evaluations against each other across the fork/join
+	 * pool and prints the score of the first. The bots do not log.
+	 */
+	public static void match(Player a, Player b, int pairs, int depth, int randomPlies) {
+		long start = System.nanoTime();
+		int[] results = new int[3];
+		MatchTask[] tasks = new MatchTask[pairs];
+		for (int i = 0; i < pairs; i++) {
+			tasks[i] = new MatchTask(a, b, depth, randomPlies);
+		}
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		for (MatchTask task : tasks) {
+			for (int i = 0; i < 3; i++) {
+				results[i] += task.join()[i];
+			}
+		}
+		System.out.println(String.format("Games %d, wins %d, losses %d, ties %d, score %.1f%%, Elapsed %.3f",
+				2 * pairs, results[0], results[1], results[2], 100.0 * (results[0] + 0.5 * results[2]) / (2 * pairs),
+				(System.nanoTime() - start) / 1e9));
+	}
+
+	/**
+	 * Returns the player of a type number, of a network file ending in .bin or of the weights of a file. The network
+	 * is shared by all bots, so a network file sets it and only one player of a match can have one.
+	 * @param other : the other player of the match, or null
+	 */
+	private static Player getPlayer(String arg, Player other) {
+		if (arg.endsWith(".bin") || arg.equals(String.valueOf(Evaluation.NETWORK))) {
+			if (other != null && other.evaluation == null)
+				throw new RuntimeException("Only one player of a match can use the network");
+			if (arg.endsWith(".bin")) {
+				Evaluation.setNetwork(ValueNetwork.load(arg));
+			} else {
+				Evaluation.getNetwork();
+			}
+			return new Player(null);
+		}
+		if (arg.matches("\\d+"))
+			return new Player(Evaluation.getTableEvaluation(Integer.parseInt(arg)));
+		return new Player(TableEvaluation.compile(EvaluationWeights.load(arg)));
+	}
+
+	/** An evaluation playing in a match, compiled tables or the network when they are null **/
+	public static class Player {
+		private final TableEvaluation evaluation;
+
+		public Player(TableEvaluation evaluation) {
+			this.evaluation = evaluation;
+		}
+
+		public MinimaxBot newBot(int depth) {
+			return evaluation != null ? new MinimaxBot(depth, evaluation, null) : new MinimaxBot(depth,
+					Evaluation.NETWORK);
+		}
+	}
+
+	/** Returns random moves from the empty field, as many as the plies unless the game ends before **/
+	private static int[] getRandomOpening(int plies) {
+		Field field = new Field();
+		Random random = ThreadLocalRandom.current();
+		int[] moves = new int[Field.COLS * Field.ROWS], opening = new int[plies];
+		int ply = 0;
+		for (int id = 1; ply < plies && field.getWinner() < 0; ply++, id = id == 1 ? 2 : 1) {
+			opening[ply] = moves[random.nextInt(field.getAvailableMoves(moves))];
+			field.makeMove(opening[ply], id, false);
+		}
+		return Arrays.copyOf(opening, ply);
+	}
+
+	/**
+	 * Plays a game from the opening moves, the first bot playing as player 1
+	 * @param positions : receives the positions the bots moved in, or null
+	 * @return the winner, 0 for a tie
+	 */
+	private static int playGame(MinimaxBot first, MinimaxBot second, int[] opening, List<String> positions) {
+		Field field = new Field();
+		MinimaxBot[] bots = { first, second };
+		for (int i = 0; i < 2; i++) {
+			bots[i].field = field;
+			bots[i].setLog(null);
+			bots[i].botId = i + 1;
+			bots[i].opponentId = i == 0 ? 2 : 1;
+		}
+		for (int ply = 0, id = 1; field.getWinner() < 0; ply++, id = id == 1 ? 2 : 1) {
+			field.setMoveNum(ply + 1);
+			int move;
+			if (ply < opening.length) {
+				move = opening[ply];
+			} else {
+				if (positions != null)
+					positions.add(field.toCompactString());
+				move = bots[id - 1].makeMove(Integer.MAX_VALUE);
+			}
+			field.makeMove(move, id, false);
+		}
+		return field.getWinner();
+	}
+
+	/** Plays one self-play game and writes its positions **/
+	private static class GameTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final PrintWriter writer;
+		private final int depth, type, randomPlies;
+
+		public GameTask(PrintWriter writer, int depth, int type, int randomPlies) {
+			this.writer = writer;
+			this.depth = depth;
+			this.type = type;
+			this.randomPlies = randomPlies;
+		}
+
+		@Override
+		protected void compute() {
+			List<String> positions = new ArrayList<>();
+			int winner = playGame(new MinimaxBot(depth, type), new MinimaxBot(depth, type),
+					getRandomOpening(randomPlies), positions);
+			StringBuilder sb = new StringBuilder();
+			for (String position : positions) {
+				sb.append(position).append(' ').append(winner).append('\n');
+			}
+			sb.append('\n'); // the readers split the positions into training and validation games by these
+			synchronized (writer) {
+				writer.print(sb);
+			}
+		}
+	}
+
+	/** Plays a pair of games from one opening with the sides swapped, the result counts wins, losses and ties of a **/
+	private static class MatchTask extends RecursiveTask<int[]> {
+		private static final long serialVersionUID = 1L;
+		private final Player a, b;
+		private final int depth, randomPlies;
+
+		public MatchTask(Player a, Player b, int depth, int randomPlies) {
+			this.a = a;
+			this.b = b;
+			this.depth = depth;
+			this.randomPlies = randomPlies;
+		}
+
+		@Override
+		protected int[] compute() {
+			int[] opening = getRandomOpening(randomPlies), results = new int[3];
+			int winner = playGame(a.newBot(depth), b.newBot(depth), opening, null);
+			results[winner == 1 ? 0 : (winner == 2 ? 1 : 2)]++;
+			winner = playGame(b.newBot(depth), a.newBot(depth), opening, null);
+			results[winner == 2 ? 0 : (winner == 1 ? 1 : 2)]++;
+			return results;
+		}
+	}
+
+	/**
+	 * Returns the indices of the training and of the validation positions. Whole games are held out, since the
+	 * positions of a game are alike and share its result. A file without blank lines between its games is read
+	 * as a single game, so it has no validation positions.
+	 * @param games : the game of each position, numbered from 0 in the order of the data file
+	 */
+	static int[][] splitByGame(int[] games, int size) {
+		int validationSize = 0;
+		for (int i = 0; i < size; i++) {
+			if (games[i] % VALIDATION_EVERY == VALIDATION_EVERY - 1)
+				validationSize++;
+		}
+		int[] training = new int[size - validationSize], validation = new int[validationSize];
+		for (int i = 0, t = 0, v = 0; i < size; i++) {
+			if (games[i] % VALIDATION_EVERY == VALIDATION_EVERY - 1) {
+				validation[v++] = i;
+			} else {
+				training[t++] = i;
+			}
+		}
+		return new int[][] { training, validation };
+	}
+
+	/**
+	 * Fits the weights of the evaluation type to the positions of the data file, starting from the current
+	 * weights, and writes those with the lowest loss on the held out positions
+	 */
+	public static void fit(String dataPath, String weightsPath, int type, int epochs, int batchSize,
+			double learningRate) {
+		long start = System.nanoTime();
+		Dataset data = Dataset.read(dataPath, type);
+		System.out.println(String.format("Positions %d, training %d, validation %d, Elapsed %.3f", data.size,
+				data.training.length, data.validation.length, (System.nanoTime() - start) / 1e9));
+		if (data.training.length == 0)
+			throw new RuntimeException("No positions to fit");
+
+		double[] weights = Evaluation.getWeights(type).getValues();
+		double scale = fitScale(data, weights);
+		double[] best = weights.clone();
+		double bestLoss = getLoss(data, data.validation, weights, scale);
+		System.out.println(String.format("Scale %.6f, training loss %.6f, validation loss %.6f", scale,
+				getLoss(data, data.training, weights, scale), bestLoss));
+
+		double[] m = new double[weights.length], v = new double[weights.length];
+		Random random = new Random(1);
+		int[] order = data.training.clone();
+		for (int epoch = 1, step = 0; epoch <= epochs; epoch++) {
+			for (int i = order.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+			double trainingLoss = 0;
+			for (int from = 0; from < order.length; from += batchSize) {
+				int to = Math.min(from + batchSize, order.length);
+				double[] gradient = getGradient(data, order, from, to, weights, scale, true);
+				trainingLoss += gradient[weights.length];
+				step++;
+				for (int i = 0; i < weights.length; i++) {
+					double g = gradient[i] / (to - from);
+					m[i] = BETA1 * m[i] + (1 - BETA1) * g;
+					v[i] = BETA2 * v[i] + (1 - BETA2) * g * g;
+					double mHat = m[i] / (1 - Math.pow(BETA1, step)), vHat = v[i] / (1 - Math.pow(BETA2, step));
+					weights[i] -= learningRate * mHat / (Math.sqrt(vHat) + EPSILON);
+				}
+			}
+			double validationLoss = getLoss(data, data.validation, weights, scale);
+			System.out.println(String.format("Epoch %d, training loss %.6f, validation loss %.6f, Elapsed %.3f",
+					epoch, trainingLoss / order.length, validationLoss, (System.nanoTime() - start) / 1e9));
+			if (validationLoss < bestLoss || data.validation.length == 0) {
+				bestLoss = validationLoss;
+				best = weights.clone();
+			}
+		}
+
+		EvaluationWeights fitted = new EvaluationWeights(type, best);
+		fitted.save(weightsPath, String.format("fitted on %d positions of %s, scale %s, validation loss %.6f",
+				data.size, dataPath, scale, bestLoss));
+		System.out.print(fitted);
+	}
+
+	/** Returns the scale of the evaluation minimizing the loss of the training positions, by golden section search **/
+	private static double fitScale(Dataset data, double[] weights) {
+		double ratio = (Math.sqrt(5) - 1) / 2;
+		double low = Math.log(1e-4), high = Math.log(10);
+		double a = high - ratio * (high - low), b = low + ratio * (high - low);
+		double lossA = getLoss(data, data.training, weights, Math.exp(a));
+		double lossB = getLoss(data, data.training, weights, Math.exp(b));
+		for (int i = 0; i < 40; i++) {
+			if (lossA < lossB) {
+				high = b;
+				b = a;
+				lossB = lossA;
+				a = high - ratio * (high - low);
+				lossA = getLoss(data, data.training, weights, Math.exp(a));
+			} else {
+				low = a;
+				a = b;
+				lossA = lossB;
+				b = low + ratio * (high - low);
+				lossB = getLoss(data, data.training, weights, Math.exp(b));
+			}
+		}
+		return Math.exp((low + high) / 2);
+	}
+
+	/** Returns the mean loss of the positions, 0 if there are none **/
+	private static double getLoss(Dataset data, int[] positions, double[] weights, double scale) {
+		if (positions.length == 0)
+			return 0;
+		return getGradient(data, positions, 0, positions.length, weights, scale, false)[weights.length]
+				/ positions.length;
+	}
+
+	/**
+	 * Sums the gradient of the cross entropy loss over the positions in the range across the fork/join pool
+	 * @return the gradient of each weight, followed by the summed loss
+	 */
+	private static double[] getGradient(Dataset data, int[] positions, int from, int to, double[] weights,
+			double scale, boolean gradient) {
+		int grain = Math.max(1024, (to - from) / (4 * ForkJoinPool.getCommonPoolParallelism()));
+		return ForkJoinPool.commonPool().invoke(new GradientTask(data, positions, from, to, grain, weights, scale,
+				gradient));
+	}
+
+	private static class GradientTask extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+		private final Dataset data;
+		private final int[] positions;
+		private final int from, to, grain;
+		private final double[] weights;
+		private final double scale;
+		private final boolean gradient;
+
+		public GradientTask(Dataset data, int[] positions, int from, int to, int grain, double[] weights,
+				double scale, boolean gradient) {
+			this.data = data;
+			this.positions = positions;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.weights = weights;
+			this.scale = scale;
+			this.gradient = gradient;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (to - from > grain) {
+				int middle = (from + to) >>> 1;
+				GradientTask left = new GradientTask(data, positions, from, middle, grain, weights, scale, gradient);
+				GradientTask right = new GradientTask(data, positions, middle, to, grain, weights, scale, gradient);
+				invokeAll(left, right);
+				double[] sum = left.join(), other = right.join();
+				for (int i = 0; i < sum.length; i++) {
+					sum[i] += other[i];
+				}
+				return sum;
+			}
+			int n = weights.length;
+			double[] sum = new double[n + 1];
+			byte[] features = data.features;
+			for (int i = from; i < to; i++) {
+				int position = positions[i], offset = position * n;
+				double z = 0;
+				for (int j = 0; j < n; j++) {
+					z += weights[j] * features[offset + j];
+				}
+				z *= scale;
+				double target = data.targets[position];
+				// log(1 + e^z) - target * z, the cross entropy of sigmoid(z), computed without overflow
+				sum[n] += Math.log1p(Math.exp(-Math.abs(z))) + Math.max(z, 0) - target * z;
+				if (gradient) {
+					double error = (1 / (1 + Math.exp(-z)) - target) * scale;
+					for (int j = 0; j < n; j++) {
+						sum[j] += error * features[offset + j];
+					}
+				}
+			}
+			return sum;
+		}
+	}
+
+	/** Feature counts and outcomes of the positions of a data file, kept compact so large files fit in memory **/
+	private static class Dataset {
+		private byte[] features;
+		/** 1 if player 1 won, 0.5 for a tie, 0 if player 2 won **/
+		private float[] targets;
+		/** Game of each position, see {@link EvaluationFitter#splitByGame} **/
+		private int[] games;
+		private int size;
+		private int[] training, validation;
+
+		/** Reads the data file line by line, only the feature counts of each position are kept **/
+		public static Dataset read(String path, int type) {
+			Dataset data = new Dataset();
+			int n = EvaluationWeights.getNames(type).length;
+			data.features = new byte[1024 * n];
+			data.targets = new float[1024];
+			data.games = new int[1024];
+			Field field = new Field();
+			int[] counts = new int[n];
+			int game = 0;
+			try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.isEmpty()) {
+						// the end of a game, unless it had no positions
+						if (data.size > 0 && data.games[data.size - 1] == game)
+							game++;
+						continue;
+					}
+					int space = line.indexOf(' ');
+					if (space < 0)
+						throw new RuntimeException("Invalid position line: " + line);
+					field.parseFromCompactString(line.substring(0, space));
+					int result = Integer.parseInt(line.substring(space + 1).trim());
+					if (result < 0 || result > 2)
+						throw new RuntimeException("Invalid result: " + line);
+					EvaluationWeights.getFeatures(field, type, counts);
+					if (data.size == data.targets.length) {
+						data.features = Arrays.copyOf(data.features, data.features.length * 2);
+						data.targets = Arrays.copyOf(data.targets, data.targets.length * 2);
+						data.games = Arrays.copyOf(data.games, data.games.length * 2);
+					}
+					data.games[data.size] = game;
+					for (int i = 0; i < n; i++) {
+						if (counts[i] != (byte) counts[i])
+							throw new RuntimeException("Feature count out of range: " + line);
+						data.features[data.size * n + i] = (byte) counts[i];
+					}
+					data.targets[data.size++] = result == 1 ? 1 : (result == 2 ? 0 : 0.5f);
+				}
+			} catch (IOException | NumberFormatException e) {
+				throw new RuntimeException("Could not read positions from " + path, e);
+			}
+			int[][] split = splitByGame(data.games, data.size);
+			data.training = split[0];
+			data.validation = split[1];
+			return data;
+		}
+	}
+}
@@ -18,7 +18,8 @@
 package com.kayblitz.uttt;
 
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * Field class
@@ -37,27 +38,148 @@ public class Field {
 	 */
 	public static final int COLS = 9, ROWS = 9;
 	public static final Move[][] MOVES = new Move[COLS][ROWS];
+	/** Occupancy mask of a completely filled micro field **/
+	public static final int FULL = 0x1FF;
+	/** Masks of the 8 winning lines of a 3x3 field, bit index is row * 3 + column **/
+	public static final int[] LINES = { 0x7, 0x38, 0x1C0, 0x49, 0x92, 0x124, 0x111, 0x54 };
+	/** Length of the binary position encoding: 9 base 3 micro field states of 15 bits and the 9 bit playable mask **/
+	public static final int COMPACT_BYTES = 18;
+	/** Length of the text position encoding, the binary encoding in URL safe base 64 **/
+	public static final int COMPACT_CHARS = 24;
+	private static final char[] BASE64_CHARS = 
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+	/** Character to its 6 bit value, -1 if not a base 64 character **/
+	private static final byte[] BASE64_VALUES = new byte[128];
+	
+	/** Cell index (row * COLS + column) to micro field index (macroRow * 3 + macroColumn) **/
+	private static final int[] CELL_MACRO = new int[COLS * ROWS];
+	/** Cell index to bit index inside its micro field (microRow * 3 + microColumn) **/
+	private static final int[] CELL_BIT = new int[COLS * ROWS];
+	/** Micro field index * 9 + bit index to the Move of that cell **/
+	private static final Move[] MACRO_BIT_MOVES = new Move[COLS * ROWS];
+	/** Micro field index * 9 + bit index to the cell index of that cell **/
+	private static final int[] MACRO_BIT_CELLS = new int[COLS * ROWS];
+	/**
+	 * Micro field row and mask to the mask of those cells in a column of micro fields, in column order: bit index
+	 * microColumn * 9 + macroRow * 3 + microRow. Indexed [macroRow * (FULL + 1) + mask].
+	 */
+	private static final int[] COLUMN_MASKS = new int[3 * (FULL + 1)];
+	/** Column of micro fields * 27 + bit index of {@link #COLUMN_MASKS} to the cell index of that cell **/
+	private static final int[] COLUMN_CELLS = new int[COLS * ROWS];
+	
+	/** Bit offsets of the packed macro state, the low 7 bits are left for the cell index of a journal entry **/
+	private static final int MACRO_PLAYABLE = 7, MACRO_WON_1 = 16, MACRO_WON_2 = 25, MACRO_TIED = 34,
+			MACRO_WINNER = 43, MACRO_NUM_MOVES = 45;
+	
+	/** Zobrist keys for each player on each cell, indexed [id - 1][cell index] **/
+	private static final long[][] ZOBRIST_CELLS = new long[2][COLS * ROWS];
+	/** Zobrist keys for the next move being forced into one micro field **/
+	private static final long[] ZOBRIST_FORCED = new long[9];
+	/** Zobrist key for the next move being allowed in any open micro field **/
+	private static final long ZOBRIST_FREE;
+	/** Zobrist key toggled on every move for the side to move **/
+	private static final long ZOBRIST_SIDE;
+	/** Combined cell keys of every occupancy mask of every micro field, indexed [id - 1][microIndex][mask] **/
+	private static final long[][][] ZOBRIST_MASKS = new long[2][9][FULL + 1];
 	
 	static {
+		Arrays.fill(BASE64_VALUES, (byte) -1);
+		for (int i = 0; i < BASE64_CHARS.length; i++) {
+			BASE64_VALUES[BASE64_CHARS[i]] = (byte) i;
+		}
 		for (int col = 0; col < COLS; col++) {
 			for (int row = 0; row < ROWS; row++) {
 				MOVES[col][row] = new Move(col, row);
+				int cell = row * COLS + col;
+				CELL_MACRO[cell] = (row / 3) * 3 + col / 3;
+				CELL_BIT[cell] = (row % 3) * 3 + col % 3;
+				MACRO_BIT_MOVES[CELL_MACRO[cell] * 9 + CELL_BIT[cell]] = MOVES[col][row];
+				MACRO_BIT_CELLS[CELL_MACRO[cell] * 9 + CELL_BIT[cell]] = cell;
+				COLUMN_CELLS[col / 3 * 27 + col % 3 * 9 + row] = cell;
+			}
+		}
+		for (int macroRow = 0; macroRow < 3; macroRow++) {
+			for (int mask = 0; mask <= FULL; mask++) {
+				for (int bit = 0; bit < 9; bit++) {
+					if ((mask & (1 << bit)) != 0)
+						COLUMN_MASKS[macroRow * (FULL + 1) + mask] |= 1 << (bit % 3 * 9 + macroRow * 3 + bit / 3);
+				}
+			}
+		}
+		// fixed seed so keys are the same across runs
+		Random rand = new Random(0x5EEDF1E1DL);
+		for (int i = 0; i < 2; i++) {
+			for (int cell = 0; cell < COLS * ROWS; cell++) {
+				ZOBRIST_CELLS[i][cell] = rand.nextLong();
+			}
+		}
+		for (int i = 0; i < 9; i++) {
+			ZOBRIST_FORCED[i] = rand.nextLong();
+		}
+		ZOBRIST_FREE = rand.nextLong();
+		ZOBRIST_SIDE = rand.nextLong();
+		for (int i = 0; i < 2; i++) {
+			for (int macro = 0; macro < 9; macro++) {
+				for (int mask = 1; mask <= FULL; mask++) {
+					int bit = Integer.numberOfTrailingZeros(mask);
+					ZOBRIST_MASKS[i][macro][mask] = ZOBRIST_MASKS[i][macro][mask & (mask - 1)]
+							^ ZOBRIST_CELLS[i][MACRO_BIT_CELLS[macro * 9 + bit]];
+				}
 			}
 		}
 	}
 	
-    private int roundNum;
-    private int moveNum;
+	private int roundNum;
+	private int moveNum;
+	/** int[][] views of the field for the evaluation functions, rebuilt from the bitboards when stale **/
 	private int[][] field;
 	private int[][] macroField;
-	private Stack<Move> moves;
-	private Stack<MacroState> macroStates;
+	private boolean fieldStale, macroFieldStale;
+	/** Bitboards, one 9 bit occupancy mask per micro field per player, indexed [id - 1][microIndex] **/
+	private int[][] micro;
+	/** Base 3 state of each micro field, see {@link MicroField} **/
+	private int[] microState;
+	/** Micro fields won per player as 9 bit masks, indexed [id - 1] **/
+	private int[] macroWon;
+	/** Micro fields that are full without a winner **/
+	private int macroTied;
+	/** Micro fields each player has won or can still win as 9 bit masks, indexed [id - 1] **/
+	private int[] macroWinnable;
+	/** Empty cells that would win an open micro field right away, indexed [id - 1][microIndex] **/
+	private int[][] microThreats;
+	/** Micro fields the next move may be made in **/
+	private int playable;
+	/** -1 if game is not over, 0 if tie, else the id of the winner **/
+	private int winner;
+	/** Zobrist hash of the cells, side to move and playable micro fields **/
+	private long hash;
+	private int numAvailableMoves;
+	/** Undo journal, one packed entry per saved move. Only saved moves occupy cells so COLS * ROWS entries is enough. **/
+	private long[] journal;
+	private int journalSize;
+	/** Values parsed from the engine strings, reused so parsing does not allocate **/
+	private int[] parsed;
+	/** Evaluation state updated on every move, null if none is set **/
+	private FieldAccumulator accumulator;
+	
+	/** One scratch Field per thread for {@link #copyForThread(Field)} **/
+	private static final ThreadLocal<Field> THREAD_FIELDS = new ThreadLocal<Field>() {
+		@Override
+		protected Field initialValue() {
+			return new Field();
+		}
+	};
 	
 	public Field() {
 		field = new int[COLS][ROWS];
 		macroField = new int[COLS / 3][ROWS / 3];
-		moves = new Stack<Move>();
-		macroStates = new Stack<MacroState>();
+		micro = new int[2][9];
+		microState = new int[9];
+		macroWon = new int[2];
+		macroWinnable = new int[2];
+		microThreats = new int[2][9];
+		journal = new long[COLS * ROWS];
+		parsed = new int[COLS * ROWS];
 		clearFields();
 	}
 	
@@ -73,9 +195,9 @@ public class Field {
 	        moveNum = Integer.parseInt(value);
 	        System.err.println("Move " + moveNum);
 	    } else if (key.equals("field")) {
-            parseFromString(value); /* Parse Field with data */
+            updateFromString(value); /* Apply the opponent's move or parse Field with data */
         } else if (key.equals("macroboard")) {
-            parseMacroFieldFromString(value); /* Parse macro field with data */
+            updateMacroFieldFromString(value); /* Check or parse macro field with data */
         }
 	}
 	
@@ -83,26 +205,265 @@ public class Field {
 	 * Initialise field from comma separated String
 	 * @param String : 
 	 */
-	public void parseFromString(String s) {
-		String[] r = s.split(",");
-		int counter = 0;
+	public void parseFromString(CharSequence s) {
+		parseValues(s, COLS * ROWS);
+		setField(parsed);
+	}
+	
+	public void parseMacroFieldFromString(CharSequence s) {
+		parseValues(s, 9);
+		setMacroField(parsed);
+	}
+	
+	/**
+	 * Updates the field from the comma separated String sent by the engine. When it only differs from the current
+	 * field by one legal move of the player to move, that move is made with {@link #makeMove(int, int, boolean)} so
+	 * the incrementally maintained state carries over. Otherwise the field is rebuilt like {@link #parseFromString}.
+	 * @return the cell index of the move made, or -1 if the field did not change or was rebuilt
+	 */
+	public int updateFromString(CharSequence s) {
+		parseValues(s, COLS * ROWS);
+		return updateField(parsed);
+	}
+	
+	/**
+	 * Checks the comma separated macro field sent by the engine against the current macro state and only 
+	 * rebuilds the macro state if they differ
+	 */
+	public void updateMacroFieldFromString(CharSequence s) {
+		parseValues(s, 9);
+		checkMacroField(parsed);
+	}
+	
+	/**
+	 * Sets the field from the cell values in engine order (row * COLS + column). The journal is cleared since its
+	 * entries belong to the previous position.
+	 */
+	void setField(int[] values) {
 		for (int y = 0; y < ROWS; y++) {
 			for (int x = 0; x < COLS; x++) {
-				field[x][y] = Integer.parseInt(r[counter]); 
-				counter++;
+				field[x][y] = values[y * COLS + x];
 			}
 		}
+		fieldStale = false;
+		journalSize = 0;
+		updateMicroBitboards();
 	}
 	
-	public void parseMacroFieldFromString(String s) {
-		String[] r = s.split(",");
-		int counter = 0;
+	/** Sets the macro field from the values in engine order (macroRow * 3 + macroColumn), clearing the journal **/
+	void setMacroField(int[] values) {
 		for (int y = 0; y < 3; y++) {
 			for (int x = 0; x < 3; x++) {
-				macroField[x][y] = Integer.parseInt(r[counter]);
-				counter++;
+				macroField[x][y] = values[y * 3 + x];
+			}
+		}
+		macroFieldStale = false;
+		journalSize = 0;
+		updateMacroBitboards();
+	}
+	
+	/** See {@link #updateFromString(CharSequence)}, takes the cell values in engine order **/
+	int updateField(int[] values) {
+		int move = -1;
+		for (int cell = 0; cell < COLS * ROWS; cell++) {
+			int current = getPlayerId(cell % COLS, cell / COLS);
+			if (values[cell] != current) {
+				if (current != 0 || move != -1) { // a stone changed or disappeared, or more than one move
+					setField(values);
+					return -1;
+				}
+				move = cell;
 			}
 		}
+		if (move == -1)
+			return -1;
+		int stones = 0;
+		for (int i = 0; i < 9; i++) {
+			stones += Integer.bitCount(micro[0][i] | micro[1][i]);
+		}
+		int id = values[move];
+		if (winner >= 0 || id != (stones % 2 == 0 ? 1 : 2) || (playable & (1 << CELL_MACRO[move])) == 0) {
+			setField(values);
+			return -1;
+		}
+		makeMove(move, id, false);
+		return move;
+	}
+	
+	/** See {@link #updateMacroFieldFromString(CharSequence)}, takes the values in engine order **/
+	void checkMacroField(int[] values) {
+		int valuesPlayable = 0;
+		for (int i = 0; i < 9; i++) {
+			if (values[i] == -1)
+				valuesPlayable |= 1 << i;
+		}
+		// the playable mask is compared on its own since won micro fields hide it in the macro field values
+		for (int i = 0; i < 9 && valuesPlayable == playable; i++) {
+			if (values[i] != getMacroValue(i))
+				valuesPlayable = -1;
+		}
+		if (valuesPlayable != playable)
+			setMacroField(values);
+	}
+	
+	/** Parses the comma separated integers into the reused values array, without splitting the String **/
+	private void parseValues(CharSequence s, int count) {
+		int n = 0, length = s.length();
+		for (int i = 0; i < length; i++) {
+			boolean negative = s.charAt(i) == '-';
+			if (negative)
+				i++;
+			int value = 0, digits = 0;
+			for (; i < length && s.charAt(i) != ','; i++, digits++) {
+				char c = s.charAt(i);
+				if (c < '0' || c > '9')
+					throw new RuntimeException("Invalid field value: " + s);
+				value = value * 10 + c - '0';
+			}
+			if (digits == 0 || n == count)
+				throw new RuntimeException("Invalid field: " + s);
+			parsed[n++] = negative ? -value : value;
+		}
+		if (n != count)
+			throw new RuntimeException("Invalid field: " + s);
+	}
+	
+	/**
+	 * Writes the position in {@link #COMPACT_BYTES} bytes: the base 3 state of each micro field in 15 bits, followed 
+	 * by the 9 bit mask of playable micro fields, least significant bits first. The side to move follows from the
+	 * stone count since player 1 always moves first.
+	 */
+	public void writeCompact(byte[] out, int offset) {
+		long bits = 0;
+		int numBits = 0;
+		for (int i = 0; i < 10; i++) {
+			bits |= (long) (i < 9 ? microState[i] : playable) << numBits;
+			numBits += i < 9 ? 15 : 9;
+			for (; numBits >= 8; numBits -= 8) {
+				out[offset++] = (byte) bits;
+				bits >>>= 8;
+			}
+		}
+	}
+	
+	/**
+	 * Sets the position from the encoding written by {@link #writeCompact(byte[], int)}, clearing the journal.
+	 * Throws if a micro field state is out of range or a finished micro field is marked playable.
+	 */
+	public void readCompact(byte[] in, int offset) {
+		long bits = 0;
+		int numBits = 0;
+		for (int i = 0; i < 10; i++) {
+			int size = i < 9 ? 15 : 9;
+			for (; numBits < size; numBits += 8) {
+				bits |= (long) (in[offset++] & 0xFF) << numBits;
+			}
+			int value = (int) bits & ((1 << size) - 1);
+			bits >>>= size;
+			numBits -= size;
+			if (i < 9) {
+				if (value >= MicroField.STATES)
+					throw new RuntimeException("Invalid position encoding");
+				micro[0][i] = 0;
+				micro[1][i] = 0;
+				microState[i] = value;
+				for (int bit = 0; value != 0; bit++, value /= 3) {
+					if (value % 3 != 0)
+						micro[value % 3 - 1][i] |= 1 << bit;
+				}
+				updateMicroResult(i);
+			} else {
+				// a finished micro field cannot be played in, the micro fields are already read
+				if ((value & (macroWon[0] | macroWon[1] | macroTied)) != 0)
+					throw new RuntimeException("Invalid position encoding");
+				playable = value;
+			}
+		}
+		fieldStale = true;
+		macroFieldStale = true;
+		journalSize = 0;
+		updateWinner();
+		updateNumAvailableMoves();
+		updateHash();
+		refreshAccumulator();
+	}
+	
+	/** Returns the position as a single {@link #COMPACT_CHARS} character token, see {@link #writeCompact(byte[], int)} **/
+	public String toCompactString() {
+		byte[] bytes = new byte[COMPACT_BYTES];
+		char[] chars = new char[COMPACT_CHARS];
+		writeCompact(bytes, 0);
+		for (int i = 0, j = 0; i < COMPACT_BYTES; i += 3) {
+			int group = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+			chars[j++] = BASE64_CHARS[group >>> 18];
+			chars[j++] = BASE64_CHARS[(group >>> 12) & 0x3F];
+			chars[j++] = BASE64_CHARS[(group >>> 6) & 0x3F];
+			chars[j++] = BASE64_CHARS[group & 0x3F];
+		}
+		return new String(chars);
+	}
+	
+	/** Sets the position from a token returned by {@link #toCompactString()} **/
+	public void parseFromCompactString(CharSequence s) {
+		if (s.length() != COMPACT_CHARS)
+			throw new RuntimeException("Invalid position encoding");
+		byte[] bytes = new byte[COMPACT_BYTES];
+		for (int i = 0, j = 0; i < COMPACT_BYTES; i += 3) {
+			int group = 0;
+			for (int k = 0; k < 4; k++) {
+				char c = s.charAt(j++);
+				int value = c < 128 ? BASE64_VALUES[c] : -1;
+				if (value < 0)
+					throw new RuntimeException("Invalid position encoding");
+				group = group << 6 | value;
+			}
+			bytes[i] = (byte) (group >>> 16);
+			bytes[i + 1] = (byte) (group >>> 8);
+			bytes[i + 2] = (byte) group;
+		}
+		readCompact(bytes, 0);
+	}
+	
+	/**
+	 * Copies the position of the other field into this one, including the move number, the incremental state and
+	 * the undo journal, without allocating. The int[][] views are rebuilt when next requested. This field keeps
+	 * its own accumulator, refreshed for the copied position. The other field is only read, so several threads
+	 * may copy from the same field as long as no one moves on it meanwhile.
+	 */
+	public void copyFrom(Field other) {
+		roundNum = other.roundNum;
+		moveNum = other.moveNum;
+		for (int i = 0; i < 9; i++) {
+			micro[0][i] = other.micro[0][i];
+			micro[1][i] = other.micro[1][i];
+			microState[i] = other.microState[i];
+			microThreats[0][i] = other.microThreats[0][i];
+			microThreats[1][i] = other.microThreats[1][i];
+		}
+		macroWon[0] = other.macroWon[0];
+		macroWon[1] = other.macroWon[1];
+		macroWinnable[0] = other.macroWinnable[0];
+		macroWinnable[1] = other.macroWinnable[1];
+		macroTied = other.macroTied;
+		playable = other.playable;
+		winner = other.winner;
+		hash = other.hash;
+		numAvailableMoves = other.numAvailableMoves;
+		System.arraycopy(other.journal, 0, journal, 0, other.journalSize);
+		journalSize = other.journalSize;
+		fieldStale = true;
+		macroFieldStale = true;
+		refreshAccumulator();
+	}
+	
+	/**
+	 * Returns the calling thread's scratch Field holding a copy of the source. Every call from the same thread
+	 * returns the same instance, so a worker gets its own board to search on without allocating one per task.
+	 */
+	public static Field copyForThread(Field source) {
+		Field copy = THREAD_FIELDS.get();
+		copy.copyFrom(source);
+		return copy;
 	}
 	
 	public void clearFields() {
@@ -116,34 +477,199 @@ public class Field {
 				macroField[x][y] = -1;
 			}
 		}
+		for (int i = 0; i < 9; i++) {
+			micro[0][i] = 0;
+			micro[1][i] = 0;
+			microState[i] = 0;
+			microThreats[0][i] = 0;
+			microThreats[1][i] = 0;
+		}
+		macroWon[0] = 0;
+		macroWon[1] = 0;
+		macroTied = 0;
+		macroWinnable[0] = FULL;
+		macroWinnable[1] = FULL;
+		playable = FULL;
+		winner = -1;
+		numAvailableMoves = COLS * ROWS;
+		hash = ZOBRIST_FREE;
+		fieldStale = false;
+		macroFieldStale = false;
+		refreshAccumulator();
+	}
+	
+	/** Rebuilds the micro bitboards and micro field results from the int[][] field **/
+	private void updateMicroBitboards() {
+		for (int i = 0; i < 9; i++) {
+			micro[0][i] = 0;
+			micro[1][i] = 0;
+			microState[i] = 0;
+		}
+		for (int col = 0; col < COLS; col++) {
+			for (int row = 0; row < ROWS; row++) {
+				int id = field[col][row];
+				if (id > 0) {
+					int cell = row * COLS + col;
+					micro[id - 1][CELL_MACRO[cell]] |= 1 << CELL_BIT[cell];
+					microState[CELL_MACRO[cell]] += id * MicroField.POW3[CELL_BIT[cell]];
+				}
+			}
+		}
+		for (int i = 0; i < 9; i++) {
+			updateMicroResult(i);
+		}
+		updateWinner();
+		updateNumAvailableMoves();
+		updateHash();
+		refreshAccumulator();
+	}
+	
+	/** Rebuilds the playable mask from the int[][] macro field. Micro field results come from the micro bitboards. **/
+	private void updateMacroBitboards() {
+		playable = 0;
+		for (int x = 0; x < 3; x++) {
+			for (int y = 0; y < 3; y++) {
+				if (macroField[x][y] == -1)
+					playable |= 1 << (y * 3 + x);
+			}
+		}
+		updateWinner();
+		updateNumAvailableMoves();
+		updateHash();
+	}
+	
+	/** Recalculates the hash from scratch. Player 1 always moves first, so the side to move is the stone count parity. **/
+	private void updateHash() {
+		hash = getPlayableKey(playable);
+		int stones = 0;
+		for (int i = 0; i < 2; i++) {
+			for (int macro = 0; macro < 9; macro++) {
+				stones += Integer.bitCount(micro[i][macro]);
+				for (int occupied = micro[i][macro]; occupied != 0; occupied &= occupied - 1) {
+					hash ^= ZOBRIST_CELLS[i][MACRO_BIT_CELLS[macro * 9 + Integer.numberOfTrailingZeros(occupied)]];
+				}
+			}
+		}
+		if ((stones & 1) != 0)
+			hash ^= ZOBRIST_SIDE;
+	}
+	
+	/** Micro field masks allowing more than one field are always all the open fields, which the cells already decide **/
+	private static long getPlayableKey(int playable) {
+		if (playable == 0)
+			return 0;
+		return (playable & (playable - 1)) == 0 ? ZOBRIST_FORCED[Integer.numberOfTrailingZeros(playable)] : ZOBRIST_FREE;
+	}
+	
+	/**
+	 * Returns the Zobrist hash of the position, maintained on every move. It covers the side to move and the 
+	 * micro fields the next move may be made in, so positions differing only in the forced field do not collide.
+	 */
+	public long getHash() {
+		return hash;
+	}
+	
+	/**
+	 * Returns the hash the position would have after applying the {@link Symmetry} transform. Computed on demand
+	 * from the bitboards so that make and undo do not pay for it. Transform 0 equals {@link #getHash()} as long as
+	 * the players alternated.
+	 */
+	public long getSymmetricHash(int transform) {
+		int[] fields = Symmetry.FIELDS[transform], masks = Symmetry.MASKS[transform];
+		long symmetricHash = getPlayableKey(masks[playable]);
+		int stones = 0;
+		for (int i = 0; i < 9; i++) {
+			stones += Integer.bitCount(micro[0][i] | micro[1][i]);
+			symmetricHash ^= ZOBRIST_MASKS[0][fields[i]][masks[micro[0][i]]]
+					^ ZOBRIST_MASKS[1][fields[i]][masks[micro[1][i]]];
+		}
+		return (stones & 1) != 0 ? symmetricHash ^ ZOBRIST_SIDE : symmetricHash;
+	}
+	
+	/**
+	 * Sets the evaluation state to keep up to date on every make and undo, so that reading the evaluation of a 
+	 * position costs next to nothing. Refreshed for the current position right away.
+	 * @param accumulator : state for this field only, or null to stop maintaining one
+	 */
+	public void setAccumulator(FieldAccumulator accumulator) {
+		this.accumulator = accumulator;
+		refreshAccumulator();
+	}
+	
+	/** Returns the evaluation state set with {@link #setAccumulator(FieldAccumulator)}, or null **/
+	public FieldAccumulator getAccumulator() {
+		return accumulator;
+	}
+	
+	private void refreshAccumulator() {
+		if (accumulator != null)
+			accumulator.refresh(this);
+	}
+	
+	/** Recalculates the result of the game by checking every macro line **/
+	private void updateWinner() {
+		winner = playable != 0 ? -1 : 0;
+		if (MicroField.WON[macroWon[0]]) {
+			winner = 1;
+		} else if (MicroField.WON[macroWon[1]]) {
+			winner = 2;
+		}
 	}
 
+	/** Lists the available moves column by column, see {@link #getAvailableMoves(int[])} **/
 	public ArrayList<Move> getAvailableMoves() {
 	    ArrayList<Move> moves = new ArrayList<Move>();
-	    for (int col = 0; col < COLS; col++) {
-	    	for (int row = 0; row < ROWS; row++) {
-	    		// check if in allowed macro field and if field is empty
-                if (macroField[col/3][row/3] == -1 && field[col][row] == 0) {
-                    moves.add(MOVES[col][row]);
-                }
-            }
-        }
+	    int[] cells = new int[COLS * ROWS];
+	    int n = getAvailableMoves(cells);
+	    for (int i = 0; i < n; i++) {
+	    	moves.add(MACRO_BIT_MOVES[CELL_MACRO[cells[i]] * 9 + CELL_BIT[cells[i]]]);
+	    }
 		return moves;
 	}
 	
-	public int getNumAvailableMoves() {
+	/**
+	 * Writes the available moves into the buffer as cell indices (row * COLS + column) without allocating. They
+	 * are listed column by column, each from the top row down, the order the bots break ties between moves in.
+	 * @param moves : buffer with room for COLS * ROWS moves
+	 * @return the number of moves written
+	 */
+	public int getAvailableMoves(int[] moves) {
 		int n = 0;
-		for (int x = 0; x < COLS; x++) {
-	    	for (int y = 0; y < ROWS; y++) {
-	    		// check if in allowed macro field and if field is empty
-                if (macroField[x/3][y/3] == -1 && field[x][y] == 0) {
-                    n++;
-                }
-            }
-        }
+		if (playable != 0 && (playable & (playable - 1)) == 0) { // a single micro field, the usual case
+			int macro = Integer.numberOfTrailingZeros(playable), cells = macro % 3 * 27;
+			int empty = COLUMN_MASKS[macro / 3 * (FULL + 1) + (~(micro[0][macro] | micro[1][macro]) & FULL)];
+			for (; empty != 0; empty &= empty - 1) {
+				moves[n++] = COLUMN_CELLS[cells + Integer.numberOfTrailingZeros(empty)];
+			}
+			return n;
+		}
+		for (int macroCol = 0; macroCol < 3; macroCol++) {
+			// empty cells of the playable micro fields of the column, in column order
+			int empty = 0;
+			for (int open = playable & (LINES[3] << macroCol); open != 0; open &= open - 1) {
+				int macro = Integer.numberOfTrailingZeros(open);
+				empty |= COLUMN_MASKS[macro / 3 * (FULL + 1) + (~(micro[0][macro] | micro[1][macro]) & FULL)];
+			}
+			for (; empty != 0; empty &= empty - 1) {
+				moves[n++] = COLUMN_CELLS[macroCol * 27 + Integer.numberOfTrailingZeros(empty)];
+			}
+		}
 		return n;
 	}
 	
+	public int getNumAvailableMoves() {
+		return numAvailableMoves;
+	}
+	
+	private void updateNumAvailableMoves() {
+		int n = 0;
+		for (int open = playable; open != 0; open &= open - 1) {
+			int macro = Integer.numberOfTrailingZeros(open);
+			n += 9 - Integer.bitCount(micro[0][macro] | micro[1][macro]);
+		}
+		numAvailableMoves = n;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
@@ -152,7 +678,7 @@ public class Field {
 			for (int x = 0; x < COLS; x++) {
 				if (counter > 0)
 					sb.append(',');
-				sb.append(field[x][y]);
+				sb.append(getField()[x][y]);
 				counter++;
 			}
 		}
@@ -166,7 +692,7 @@ public class Field {
 			for (int x = 0; x < 3; x++) {
 				if (counter > 0)
 					sb.append(',');
-				sb.append(macroField[x][y]);
+				sb.append(getMacroField()[x][y]);
 				counter++;
 			}
 		}
@@ -185,13 +711,29 @@ public class Field {
 		return moveNum;
 	}
 	
+	public void setMoveNum(int moveNum) {
+		this.moveNum = moveNum;
+	}
+	
+	public int getRoundNum() {
+		return roundNum;
+	}
+	
+	public void setRoundNum(int roundNum) {
+		this.roundNum = roundNum;
+	}
+	
 	/**
 	 * Returns the player id on given column and row
 	 * @param args : int column, int row
 	 * @return : int
 	 */
 	public int getPlayerId(int column, int row) {
-		return field[column][row];
+		int cell = row * COLS + column;
+		int bit = 1 << CELL_BIT[cell];
+		if ((micro[0][CELL_MACRO[cell]] & bit) != 0)
+			return 1;
+		return (micro[1][CELL_MACRO[cell]] & bit) != 0 ? 2 : 0;
 	}
 	
 	/**
@@ -199,39 +741,61 @@ public class Field {
 	 * @return
 	 */
 	public int getWinner() {
-		if (macroField[0][0] > 0 && macroField[0][0] == macroField[1][1] &&
-				macroField[1][1] == macroField[2][2]) { // \ diagonal
-			return macroField[0][0];
-		} else if (macroField[0][2] > 0 && macroField[0][2] == macroField[1][1] &&
-				macroField[1][1] == macroField[2][0]) { // / diagonal
-			return macroField[0][2];
-		}
-		
-		// check vertical
-		for (int x = 0; x < 3; x++) {
-			if (macroField[x][0] > 0 && macroField[x][0] == macroField[x][1] &&
-					macroField[x][1] == macroField[x][2]) {
-				return macroField[x][0];
-			}
-		}
-		
-		// check horizontal
-		for (int y = 0; y < 3; y++) {
-			if (macroField[0][y] > 0 && macroField[0][y] == macroField[1][y] &&
-					macroField[1][y] == macroField[2][y]) {
-				return macroField[0][y];
-			}
+		return winner;
+	}
+	
+	/**
+	 * Returns the result of the game as soon as it is decided: same as {@link #getWinner()}, except that 0 is
+	 * returned early once no macro line can be completed by either player anymore, since the game can then
+	 * only end in a tie. Playouts and searches can stop there instead of filling the remaining cells.
+	 */
+	public int getDecidedWinner() {
+		if (winner >= 0)
+			return winner;
+		return MicroField.WON[macroWinnable[0]] || MicroField.WON[macroWinnable[1]] ? -1 : 0;
+	}
+	
+	/** Returns the 9 bit mask of the micro fields the player has won or can still win **/
+	public int getMacroWinnable(int id) {
+		return macroWinnable[id - 1];
+	}
+	
+	/** Returns the 9 bit mask of the empty cells that would win the micro field for the player right away **/
+	public int getMicroThreats(int id, int macroIndex) {
+		return microThreats[id - 1][macroIndex];
+	}
+	
+	/** Returns the 9 bit mask of the open micro fields that would win the game for the player when won **/
+	public int getMacroThreats(int id) {
+		return MicroField.THREATS[macroWon[id - 1]] & ~(macroWon[0] | macroWon[1] | macroTied);
+	}
+	
+	/**
+	 * Returns true if a move in one of the playable micro fields might leave the game decided as a tie, see 
+	 * {@link #getDecidedWinner()}. Checked as if the micro field of the move could no longer be won by either
+	 * player, so it may return true for moves that do not.
+	 */
+	public boolean canMoveDecideTie() {
+		for (int fields = playable; fields != 0; fields &= fields - 1) {
+			int others = ~(fields & -fields) & FULL;
+			if (!MicroField.WON[macroWinnable[0] & others] && !MicroField.WON[macroWinnable[1] & others])
+				return true;
 		}
-		
-		for (int col = 0; col < 3; col++) {
-			for (int row = 0; row < 3; row++) {
-				// game still playable
-				if (macroField[col][row] == -1)
-					return -1;
-			}
+		return false;
+	}
+	
+	/**
+	 * Returns a move (cell index) that wins the game for the player right away, or -1 if there is none. Only
+	 * the threat masks of the playable micro fields that would complete a macro line are looked at.
+	 */
+	public int getWinningMove(int id) {
+		for (int fields = playable & getMacroThreats(id); fields != 0; fields &= fields - 1) {
+			int macro = Integer.numberOfTrailingZeros(fields);
+			int threats = microThreats[id - 1][macro];
+			if (threats != 0)
+				return MACRO_BIT_CELLS[macro * 9 + Integer.numberOfTrailingZeros(threats)];
 		}
-		
-		return 0;
+		return -1;
 	}
 	
 	/**
@@ -239,133 +803,288 @@ public class Field {
 	 * @param move
 	 * @param id
 	 * @param addToStack - add to stack to undo later
-	 * @return success
+	 * @return the result of the game after the move, same as {@link #getWinner()}
 	 */
-	public boolean makeMove(Move move, int id, boolean addToStack) {
+	public int makeMove(Move move, int id, boolean addToStack) {
 		return makeMove(move.column, move.row, id, addToStack);
 	}
 	
-	public boolean makeMove(int column, int row, int id, boolean addToStack) {
-		if (field[column][row] > 0)
+	/** Makes the move given as a cell index (row * COLS + column), see {@link #getAvailableMoves(int[])} **/
+	public int makeMove(int move, int id, boolean addToStack) {
+		return makeMove(move % COLS, move / COLS, id, addToStack);
+	}
+	
+	public int makeMove(int column, int row, int id, boolean addToStack) {
+		int cell = row * COLS + column;
+		if (((micro[0][CELL_MACRO[cell]] | micro[1][CELL_MACRO[cell]]) & (1 << CELL_BIT[cell])) != 0)
 			throw new RuntimeException("Invalid move: space not empty");
 		
-		field[column][row] = id;
 		if (addToStack) {
-			moves.push(new Move(column, row)); // save move
-			// save original micro field state
-			MacroState state = new MacroState();
-			state.saveState(macroField);
-			macroStates.push(state);
+			// save move and original macro field state
+			journal[journalSize++] = cell | packMacroState();
 		}
+		int macro = CELL_MACRO[cell], previousMicroState = microState[macro];
+		field[column][row] = id;
+		micro[id - 1][macro] |= 1 << CELL_BIT[cell];
+		microState[macro] += id * MicroField.POW3[CELL_BIT[cell]];
 		// update macro field state
+		int previousPlayable = playable;
 		updateMacroWinner(column / 3, row / 3);
 		updateMacroField(column, row);
-		return true;
+		hash ^= ZOBRIST_CELLS[id - 1][cell] ^ ZOBRIST_SIDE ^ getPlayableKey(previousPlayable) ^ getPlayableKey(playable);
+		if (accumulator != null)
+			accumulator.update(this, macro, previousMicroState, microState[macro]);
+		// only the micro field of this move can have changed owner, so only its macro lines can finish the game
+		winner = playable != 0 ? -1 : 0;
+		int won = macroWon[id - 1];
+		if ((won & (1 << macro)) != 0) {
+			for (int line : LINES) {
+				if ((line & (1 << macro)) != 0 && (won & line) == line) {
+					winner = id;
+					break;
+				}
+			}
+		}
+		return winner;
 	}
 	
 	public void updateMacroWinner(int macroColumn, int macroRow) {
-		macroField[macroColumn][macroRow] = getMicroWinner(macroColumn * 3, macroRow * 3);
+		updateMicroResult(macroRow * 3 + macroColumn);
+	}
+	
+	/** Looks up whether the micro field is won, tied or still open from its base 3 state **/
+	private void updateMicroResult(int macro) {
+		int bit = 1 << macro;
+		macroWon[0] &= ~bit;
+		macroWon[1] &= ~bit;
+		macroTied &= ~bit;
+		int result = MicroField.RESULT[microState[macro]];
+		if (result > 0) {
+			macroWon[result - 1] |= bit;
+		} else if (result == 0) {
+			macroTied |= bit;
+		}
+		updateMicroMasks(macro);
+	}
+	
+	/** Looks up which players can still win the micro field and which cells win it right away **/
+	private void updateMicroMasks(int macro) {
+		int winnable = MicroField.WINNABLE[microState[macro]];
+		macroWinnable[0] = (macroWinnable[0] & ~(1 << macro)) | (winnable & 1) << macro;
+		macroWinnable[1] = (macroWinnable[1] & ~(1 << macro)) | (winnable >> 1) << macro;
+		if (MicroField.RESULT[microState[macro]] == -1) {
+			int empty = ~(micro[0][macro] | micro[1][macro]) & FULL;
+			microThreats[0][macro] = MicroField.THREATS[micro[0][macro]] & empty;
+			microThreats[1][macro] = MicroField.THREATS[micro[1][macro]] & empty;
+		} else {
+			microThreats[0][macro] = 0;
+			microThreats[1][macro] = 0;
+		}
+	}
+	
+	/** Returns -1 if the micro field is open, 0 if tied, else the id of the winner **/
+	public int getMicroWinner(int macroIndex) {
+		return MicroField.RESULT[microState[macroIndex]];
+	}
+	
+	/** Returns the 9 bit occupancy mask of the player in the micro field **/
+	public int getOccupied(int id, int macroIndex) {
+		return micro[id - 1][macroIndex];
+	}
+	
+	/** Returns the 9 bit mask of the micro fields the next move may be made in **/
+	public int getPlayable() {
+		return playable;
+	}
+	
+	/** Returns the base 3 state of the micro field, see {@link MicroField} **/
+	public int getMicroState(int macroIndex) {
+		return microState[macroIndex];
+	}
+	
+	/** Returns the base 3 state of the macro field, with the winner of each won micro field as its stone **/
+	public int getMacroState() {
+		return MicroField.BASE3[macroWon[0]] + 2 * MicroField.BASE3[macroWon[1]];
+	}
+	
+	/**
+	 * Returns the result of the micro field played out on its own with perfect play and the player to move first,
+	 * 0 for a tie or the id of the winner, see {@link MicroField#getOutcome}
+	 */
+	public int getMicroOutcome(int macroIndex, int idToMove) {
+		return MicroField.getOutcome(microState[macroIndex], idToMove);
 	}
 	
 	public void updateMacroField(int column, int row) {
 		// ie: 3,2 move -> 0,2 next micro -> 0,6 top-left next micro box coords
 		// ie: 5,4 -> 2,1 -> 6,3
-		// convert move coords into next micro field coords 
-		while (column > 2)
-			column -= 3;
-		while (row > 2)
-			row -= 3;
-
-		// whether the next micro field is finished or not
-		boolean nextMicroPlayable = getMicroWinner(column * 3, row * 3) == -1;
+		// the position inside the micro field is the index of the next micro field
+		int next = (row % 3) * 3 + column % 3;
+		int finished = macroWon[0] | macroWon[1] | macroTied;
+		if ((finished & (1 << next)) != 0) {
+			// next micro field finished, set all open micro fields to be playable
+			playable = ~finished & FULL;
+		} else {
+			playable = 1 << next;
+		}
+		updateNumAvailableMoves();
+		macroFieldStale = true;
+	}
+	
+	/** Packs the macro bitboards, game result and move count into one word **/
+	private long packMacroState() {
+		return (long) playable << MACRO_PLAYABLE | (long) macroWon[0] << MACRO_WON_1
+				| (long) macroWon[1] << MACRO_WON_2 | (long) macroTied << MACRO_TIED
+				| (long) (winner + 1) << MACRO_WINNER | (long) numAvailableMoves << MACRO_NUM_MOVES;
+	}
+	
+	private void unpackMacroState(long state) {
+		playable = (int) (state >>> MACRO_PLAYABLE) & FULL;
+		macroWon[0] = (int) (state >>> MACRO_WON_1) & FULL;
+		macroWon[1] = (int) (state >>> MACRO_WON_2) & FULL;
+		macroTied = (int) (state >>> MACRO_TIED) & FULL;
+		winner = ((int) (state >>> MACRO_WINNER) & 0x3) - 1;
+		numAvailableMoves = (int) (state >>> MACRO_NUM_MOVES) & 0x7F;
+		macroFieldStale = true;
+	}
+	
+	/** Writes the macro bitboards back into the int[][] macro field view **/
+	private void updateMacroView() {
 		for (int y = 0; y < 3; y++) {
 			for (int x = 0; x < 3; x++) {
-				if (macroField[x][y] < 0 || (macroField[x][y] == 0 && !isMicroFull(x * 3, y * 3))) {
-					if (!nextMicroPlayable || (x == column && y == row)) {
-						// next micro field finished, set all open micro fields to be playable
-						// else set playable only if its the nextMicroIndex
-						macroField[x][y] = -1;
-					} else {
-						macroField[x][y] = 0;
-					}
-				}
+				macroField[x][y] = getMacroValue(y * 3 + x);
 			}
 		}
 	}
 	
-	private boolean isMicroFull(int topLeftColumn, int topLeftRow) {
-		if (field[topLeftColumn][topLeftRow] == 0 || 
-			field[topLeftColumn + 1][topLeftRow] == 0 || 
-			field[topLeftColumn + 2][topLeftRow] == 0 ||
-			field[topLeftColumn][topLeftRow + 1] == 0 || 
-			field[topLeftColumn + 1][topLeftRow + 1] == 0 || 
-			field[topLeftColumn + 2][topLeftRow + 1] == 0 ||
-			field[topLeftColumn][topLeftRow + 2] == 0 || 
-			field[topLeftColumn + 1][topLeftRow + 2] == 0 || 
-			field[topLeftColumn + 2][topLeftRow + 2] == 0) {
-			return false;
-		}
-		return true;
-	}
-	
-	private int getMicroWinner(int topLeftColumn, int topLeftRow) {
-		int m00 = field[topLeftColumn][topLeftRow];
-		int m10 = field[topLeftColumn + 1][topLeftRow];
-		int m20 = field[topLeftColumn + 2][topLeftRow];
-		int m01 = field[topLeftColumn][topLeftRow + 1];
-		int m11 = field[topLeftColumn + 1][topLeftRow + 1];
-		int m21 = field[topLeftColumn + 2][topLeftRow + 1];
-		int m02 = field[topLeftColumn][topLeftRow + 2];
-		int m12 = field[topLeftColumn + 1][topLeftRow + 2];
-		int m22 = field[topLeftColumn + 2][topLeftRow + 2];
-    	
-		/* Check for vertical wins */
-        if (m00 > 0 && m00 == m01 && m01 == m02) return m00;
-        if (m10 > 0 && m10 == m11 && m11 == m12) return m10;
-        if (m20 > 0 && m20 == m21 && m21 == m22) return m20;
-        
-		/* Check for horizontal wins */
-        if (m00 > 0 && m00 == m10 && m10 == m20) return m00;
-        if (m01 > 0 && m01 == m11 && m11 == m21) return m01;
-        if (m02 > 0 && m02 == m12 && m12 == m22) return m02;
-        
-		/* Check for forward diagonal wins - / */
-		if (m02 > 0 && m02 == m11 && m11 == m20) return m02;
-		
-		/* Check for backward diagonal wins - \ */
-		if (m00 > 0 && m00 == m11 && m11 == m22) return m00;
-		
-		// check if the field is open
-		if (m00 == 0 || m10 == 0 || m20 == 0 ||
-				m01 == 0 || m11 == 0 || m21 == 0 ||
-				m02 == 0 || m12 == 0 || m22 == 0) {
+	/** Returns the macro field value of the micro field as the engine sends it **/
+	private int getMacroValue(int macroIndex) {
+		int bit = 1 << macroIndex;
+		if ((macroWon[0] & bit) != 0) {
+			return 1;
+		} else if ((macroWon[1] & bit) != 0) {
+			return 2;
+		} else if ((playable & bit) != 0) {
 			return -1;
+		} else {
+			return 0;
 		}
-		
-		// must be a tie
-        return 0;
 	}
 	
 	public void undo() {
 		// undo move
-		Move lastMove = moves.pop();
-		field[lastMove.column][lastMove.row] = 0;
-		// restore original micro state
-		MacroState lastMacro = macroStates.pop();
-		lastMacro.restoreState(macroField);
+		long entry = journal[--journalSize];
+		int cell = (int) entry & 0x7F;
+		int macro = CELL_MACRO[cell], bit = 1 << CELL_BIT[cell];
+		int id = (micro[0][macro] & bit) != 0 ? 1 : 2;
+		int previousMicroState = microState[macro];
+		field[cell % COLS][cell / COLS] = 0;
+		micro[id - 1][macro] &= ~bit;
+		microState[macro] -= id * MicroField.POW3[CELL_BIT[cell]];
+		// restore original macro state
+		int previousPlayable = playable;
+		unpackMacroState(entry);
+		updateMicroMasks(macro);
+		hash ^= ZOBRIST_CELLS[id - 1][cell] ^ ZOBRIST_SIDE ^ getPlayableKey(previousPlayable) ^ getPlayableKey(playable);
+		if (accumulator != null)
+			accumulator.update(this, macro, previousMicroState, microState[macro]);
 	}
 	
 	/** Removes last saved move. Does NOT undo the move **/
 	public void pop() {
-		moves.pop();
-		macroStates.pop();
+		journalSize--;
+	}
+	
+	/** Returns a compact snapshot of the bitboards and macro state **/
+	public FieldState saveState() {
+		return saveState(journalSize);
+	}
+	
+	/**
+	 * Returns a snapshot of the position after the last saved move, to be restored at the journal depth before
+	 * that move. For trees that make each child with a saved move, snapshot it and undo it, and later restore the
+	 * child where they restore the parent.
+	 */
+	public FieldState saveChildState() {
+		if (journalSize == 0)
+			throw new RuntimeException("No saved move to take a child snapshot after");
+		return saveState(journalSize - 1);
+	}
+	
+	private FieldState saveState(int journalSize) {
+		return new FieldState(
+				micro[0][0] | (long) micro[0][1] << 9 | (long) micro[0][2] << 18 | (long) micro[0][3] << 27
+				| (long) micro[0][4] << 36 | (long) micro[0][5] << 45 | (long) micro[0][6] << 54,
+				micro[0][7] | (long) micro[0][8] << 9,
+				micro[1][0] | (long) micro[1][1] << 9 | (long) micro[1][2] << 18 | (long) micro[1][3] << 27
+				| (long) micro[1][4] << 36 | (long) micro[1][5] << 45 | (long) micro[1][6] << 54,
+				micro[1][7] | (long) micro[1][8] << 9,
+				packMacroState(), hash, journalSize);
+	}
+	
+	/**
+	 * Restores a snapshot taken with {@link #saveState()}. The int[][] views are rebuilt when next requested. Only
+	 * valid at the journal depth the snapshot was taken at, after undoing the moves saved since or making them
+	 * without saving, so the journal entries below still lead back from the restored position.
+	 */
+	public void restoreState(FieldState state) {
+		if (state.journalSize != journalSize)
+			throw new RuntimeException("Field state restored at a different undo journal depth");
+		for (int i = 0; i < 7; i++) {
+			micro[0][i] = (int) (state.player1Low >>> (i * 9)) & FULL;
+			micro[1][i] = (int) (state.player2Low >>> (i * 9)) & FULL;
+		}
+		for (int i = 7; i < 9; i++) {
+			micro[0][i] = (int) (state.player1High >>> ((i - 7) * 9)) & FULL;
+			micro[1][i] = (int) (state.player2High >>> ((i - 7) * 9)) & FULL;
+		}
+		for (int i = 0; i < 9; i++) {
+			microState[i] = MicroField.BASE3[micro[0][i]] + 2 * MicroField.BASE3[micro[1][i]];
+			updateMicroMasks(i);
+		}
+		unpackMacroState(state.macro);
+		hash = state.hash;
+		fieldStale = true;
+		refreshAccumulator();
+	}
+	
+	/** Returns the cell index of a move, the compact move representation used by the bots **/
+	public static int getMoveIndex(int column, int row) {
+		return row * COLS + column;
+	}
+	
+	/** Returns the index (macroRow * 3 + macroColumn) of the micro field of a cell index **/
+	public static int getMacroIndex(int move) {
+		return CELL_MACRO[move];
+	}
+	
+	/** Returns the bit index (microRow * 3 + microColumn) of a cell index inside its micro field **/
+	public static int getBitIndex(int move) {
+		return CELL_BIT[move];
+	}
+	
+	/** Returns the cached Move of a cell index (row * COLS + column) **/
+	public static Move getMove(int move) {
+		return MOVES[move % COLS][move / COLS];
 	}
 	
 	public int[][] getMacroField() {
+		if (macroFieldStale) {
+			updateMacroView();
+			macroFieldStale = false;
+		}
 		return macroField;
 	}
 	
 	public int[][] getField() {
+		if (fieldStale) {
+			for (int col = 0; col < COLS; col++) {
+				for (int row = 0; row < ROWS; row++) {
+					field[col][row] = getPlayerId(col, row);
+				}
+			}
+			fieldStale = false;
+		}
 		return field;
 	}
 }
\ No newline at end of file
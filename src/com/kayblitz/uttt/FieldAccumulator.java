@@ -0,0 +1,21 @@
+package com.kayblitz.uttt;
+
+/**
+ * Evaluation state that a Field keeps up to date on every move, such as the running sum of evaluation tables or
+ * the first layer of a value network. Set with {@link Field#setAccumulator(FieldAccumulator)}. An instance holds
+ * the state of one Field, so every Field needs its own.
+ */
+public interface FieldAccumulator {
+
+	/** Recomputes the state from scratch, called when the position was set, restored or copied **/
+	void refresh(Field field);
+
+	/**
+	 * Updates the state after a move was made or undone. Only the micro field of the move changed, from the 
+	 * previous base 3 state to the current one, and with it possibly its result on the macro field.
+	 */
+	void update(Field field, int macroIndex, int previousMicroState, int microState);
+
+	/** Returns the evaluation of the position for player 1 **/
+	double evaluate();
+}
@@ -1,22 +1,26 @@
 package com.kayblitz.uttt;
 
-public class FieldState {
+/**
+ * Immutable snapshot of a Field, see {@link Field#saveState()}. The cells of each player are packed 9 bits
+ * per micro field, micro fields 0 to 6 in the low word and 7 to 8 in the high word. The macro state is
+ * packed into a single word, followed by the Zobrist hash and the depth of the undo journal it was taken at.
+ */
+public final class FieldState {
 
-	private int[][] fieldState;
+	final long player1Low, player1High, player2Low, player2High;
+	final long macro;
+	final long hash;
+	/** A snapshot can only be restored at this journal depth, see {@link Field#restoreState(FieldState)} **/
+	final int journalSize;
 	
-	public FieldState() {
-		fieldState = new int[9][9];
-	}
-	
-	public void saveState(int[][] field) {
-		for (int i = 0; i < 9; i++) {
-			System.arraycopy(field[i], 0, fieldState[i], 0, 9);
-		}
-	}
-	
-	public void restoreState(int[][] field) {
-		for (int i = 0; i < 9; i++) {
-			System.arraycopy(fieldState[i], 0, field[i], 0, 9);
-		}
+	FieldState(long player1Low, long player1High, long player2Low, long player2High, long macro, long hash,
+			int journalSize) {
+		this.player1Low = player1Low;
+		this.player1High = player1High;
+		this.player2Low = player2Low;
+		this.player2High = player2High;
+		this.macro = macro;
+		this.hash = hash;
+		this.journalSize = journalSize;
 	}
 }
@@ -0,0 +1,135 @@
+package com.kayblitz.uttt;
+
+import java.util.Arrays;
+
+/**
+ * Precomputed tables for a single micro field. A micro field state is indexed in base 3, where the cell
+ * at bit index i (microRow * 3 + microColumn) contributes id * 3^i, giving 3^9 = 19683 states.
+ */
+public class MicroField {
+
+	public static final int STATES = 19683;
+	public static final int[] POW3 = { 1, 3, 9, 27, 81, 243, 729, 2187, 6561 };
+	/** Result of each micro field state: -1 if open, 0 if tie, else the id of the winner **/
+	public static final byte[] RESULT = new byte[STATES];
+	/** Base 3 state of a 9 bit occupancy mask of player 1, multiply by 2 for player 2 **/
+	public static final int[] BASE3 = new int[Field.FULL + 1];
+	/** True if the 9 bit mask contains one of the 8 lines **/
+	public static final boolean[] WON = new boolean[Field.FULL + 1];
+	/** Cells outside the 9 bit mask that complete one of the 8 lines when added to it **/
+	public static final int[] THREATS = new int[Field.FULL + 1];
+	/**
+	 * Players that won or can still win each micro field state: bit 0 for player 1, bit 1 for player 2. An open
+	 * micro field can still be won by a player as long as one of its lines holds no stone of the opponent.
+	 */
+	public static final byte[] WINNABLE = new byte[STATES];
+	/** 9 bit occupancy mask of each player in each state, indexed [id - 1][state] **/
+	public static final short[][] OCCUPIED = new short[2][STATES];
+	/**
+	 * Tablebase of each state played on its own with perfect play, for each player to move: 2 bits per entry
+	 * holding the result as in {@link #RESULT}, 0 for a tie or the id of the winner. Entry (state, id) is at
+	 * bit 2 * (2 * state + id - 1). See {@link #getOutcome}.
+	 */
+	private static final long[] OUTCOMES = new long[(4 * STATES + 63) / 64];
+
+	static {
+		for (int occupied = 0; occupied <= Field.FULL; occupied++) {
+			for (int i = 0; i < 9; i++) {
+				if ((occupied & (1 << i)) != 0)
+					BASE3[occupied] += POW3[i];
+			}
+			WON[occupied] = isWon(occupied);
+		}
+		for (int occupied = 0; occupied <= Field.FULL; occupied++) {
+			for (int i = 0; i < 9; i++) {
+				if ((occupied & (1 << i)) == 0 && WON[occupied | 1 << i])
+					THREATS[occupied] |= 1 << i;
+			}
+		}
+		for (int state = 0; state < STATES; state++) {
+			int p1 = 0, p2 = 0;
+			for (int i = 0, s = state; i < 9; i++, s /= 3) {
+				if (s % 3 == 1) {
+					p1 |= 1 << i;
+				} else if (s % 3 == 2) {
+					p2 |= 1 << i;
+				}
+			}
+			OCCUPIED[0][state] = (short) p1;
+			OCCUPIED[1][state] = (short) p2;
+			if (WON[p1]) {
+				RESULT[state] = 1;
+				WINNABLE[state] = 1;
+			} else if (WON[p2]) {
+				RESULT[state] = 2;
+				WINNABLE[state] = 2;
+			} else if ((p1 | p2) == Field.FULL) {
+				RESULT[state] = 0;
+			} else {
+				RESULT[state] = -1;
+				for (int line : Field.LINES) {
+					if ((line & p2) == 0)
+						WINNABLE[state] |= 1;
+					if ((line & p1) == 0)
+						WINNABLE[state] |= 2;
+				}
+			}
+		}
+		byte[] outcomes = new byte[2 * STATES];
+		Arrays.fill(outcomes, (byte) -1);
+		for (int state = 0; state < STATES; state++) {
+			for (int id = 1; id <= 2; id++) {
+				int outcome = solve(state, id, outcomes);
+				OUTCOMES[state >>> 4] |= (long) outcome << (2 * (2 * state + id - 1) & 63);
+			}
+		}
+	}
+
+	/** Returns the result of the state with the player to move and perfect play, memoized in outcomes **/
+	private static int solve(int state, int id, byte[] outcomes) {
+		if (RESULT[state] >= 0)
+			return RESULT[state];
+		int index = 2 * state + id - 1;
+		if (outcomes[index] >= 0)
+			return outcomes[index];
+		int opponent = id == 1 ? 2 : 1, best = opponent;
+		int empty = ~(OCCUPIED[0][state] | OCCUPIED[1][state]) & Field.FULL;
+		for (; empty != 0 && best != id; empty &= empty - 1) {
+			int outcome = solve(state + id * POW3[Integer.numberOfTrailingZeros(empty)], opponent, outcomes);
+			if (outcome == id || outcome == 0)
+				best = outcome;
+		}
+		outcomes[index] = (byte) best;
+		return best;
+	}
+
+	/**
+	 * Returns the result of the state played out on its own by both players with perfect play, the player to
+	 * move first: 0 for a tie, else the id of the player who can force the win. Exact for the micro field as a
+	 * game of tic-tac-toe, but in the full game the players do not have to alternate on it, so this is knowledge
+	 * about the micro field rather than a proof about the game.
+	 */
+	public static int getOutcome(int state, int idToMove) {
+		return (int) (OUTCOMES[state >>> 4] >>> (2 * (2 * state + idToMove - 1) & 63)) & 3;
+	}
+
+	/** Returns true if the player can force the win of the state played on its own, see {@link #getOutcome} **/
+	public static boolean canForceWin(int state, int id, int idToMove) {
+		return getOutcome(state, idToMove) == id;
+	}
+
+	/** Returns true if the player is guaranteed at least a tie of the state played on its own **/
+	public static boolean isAtLeastTie(int state, int id, int idToMove) {
+		int outcome = getOutcome(state, idToMove);
+		return outcome == id || outcome == 0;
+	}
+
+	/** Returns true if the occupancy mask contains one of the 8 lines **/
+	private static boolean isWon(int occupied) {
+		for (int line : Field.LINES) {
+			if ((occupied & line) == line)
+				return true;
+		}
+		return false;
+	}
+}
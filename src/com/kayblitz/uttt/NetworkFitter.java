@@ -0,0 +1,356 @@
+package com.kayblitz.uttt;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.kayblitz.uttt.bot.Evaluation;
+import com.kayblitz.uttt.bot.ValueNetwork;
+
+/**
+ * Trains the {@link ValueNetwork} of the {@link Evaluation#NETWORK} evaluation on the positions written by
+ * EvaluationFitter generate. The network is trained in floating point with the shape it runs with: the hidden units
+ * sum the rows of the active features and are clipped to [0, 1], the output is their weighted sum, the logit of the
+ * probability that player 1 wins with a tie counting as half a win. Each time a position is used it is turned by one
+ * of the symmetries of the field. The weights are then rounded to the fixed point of the network, an activation of 1
+ * becoming {@link ValueNetwork#ACTIVATION_MAX} and a logit of 1 becoming {@link ValueNetwork#UNITS_PER_LOGIT}.
+ */
+class NetworkFitter {
+
+	/** Largest factor the output weights are scaled by before rounding them to int8 **/
+	private static final double MAX_OUTPUT_SCALE = 64;
+	/**
+	 * Largest accumulator of a hidden unit for any position, in the units of the parameters. Leaves room for the
+	 * bias and every active feature being rounded up by half a step.
+	 */
+	private static final double MAX_ACCUMULATOR =
+			(double) (Short.MAX_VALUE - ValueNetwork.MAX_ACTIVE - 1) / ValueNetwork.ACTIVATION_MAX;
+	/** Features of each symmetry, indexed [transform][feature] **/
+	private static final int[][] SYMMETRIES = new int[Symmetry.NUM_TRANSFORMS][ValueNetwork.INPUTS];
+
+	static {
+		for (int t = 0; t < Symmetry.NUM_TRANSFORMS; t++) {
+			int[] map = Symmetry.FIELDS[t];
+			for (int macro = 0; macro < 9; macro++) {
+				for (int id = 1; id <= 2; id++) {
+					for (int bit = 0; bit < 9; bit++) {
+						SYMMETRIES[t][ValueNetwork.getCellFeature(id, macro, bit)] =
+								ValueNetwork.getCellFeature(id, map[macro], map[bit]);
+					}
+					SYMMETRIES[t][ValueNetwork.getWonFeature(id, macro)] = ValueNetwork.getWonFeature(id, map[macro]);
+				}
+				SYMMETRIES[t][ValueNetwork.getTiedFeature(macro)] = ValueNetwork.getTiedFeature(map[macro]);
+			}
+		}
+	}
+
+	private final int hidden;
+	/**
+	 * Parameters in one array so Adam updates them together: the first layer weights indexed [feature * hidden +
+	 * hidden unit], then the first layer biases, the output weights and the output bias
+	 */
+	private final double[] params;
+	private final int biasOffset, outputOffset, outputBiasOffset;
+	/** Largest output bias whose int sum with every output weight at the int8 bound cannot overflow **/
+	private final double maxOutputBias;
+
+	private NetworkFitter(int hidden, Random random) {
+		this.hidden = hidden;
+		biasOffset = ValueNetwork.INPUTS * hidden;
+		outputOffset = biasOffset + hidden;
+		outputBiasOffset = outputOffset + hidden;
+		params = new double[outputBiasOffset + 1];
+		maxOutputBias = (Integer.MAX_VALUE - 1 - (double) hidden * Byte.MAX_VALUE * ValueNetwork.ACTIVATION_MAX)
+				/ (ValueNetwork.ACTIVATION_MAX * MAX_OUTPUT_SCALE);
+		for (int i = 0; i < biasOffset; i++) {
+			params[i] = (random.nextDouble() - 0.5) * 0.2;
+		}
+		for (int i = 0; i < hidden; i++) {
+			params[biasOffset + i] = 0.5;
+			params[outputOffset + i] = (random.nextDouble() - 0.5) * 2 / Math.sqrt(hidden);
+		}
+	}
+
+	/**
+	 * Trains a network with the hidden units on the positions of the data file and writes the network with the
+	 * lowest loss on the held out positions
+	 */
+	public static void train(String dataPath, String networkPath, int hidden, int epochs, int batchSize,
+			double learningRate) {
+		long start = System.nanoTime();
+		Dataset data = Dataset.read(dataPath);
+		System.out.println(String.format("Positions %d, training %d, validation %d, Elapsed %.3f", data.size,
+				data.training.length, data.validation.length, (System.nanoTime() - start) / 1e9));
+		if (data.training.length == 0)
+			throw new RuntimeException("No positions to train on");
+		if (hidden <= 0 || hidden > 1 << 16)
+			throw new RuntimeException("Invalid number of hidden units: " + hidden);
+
+		Random random = new Random(1);
+		NetworkFitter fitter = new NetworkFitter(hidden, random);
+		double[] params = fitter.params, best = params.clone();
+		double bestLoss = Double.POSITIVE_INFINITY;
+		double[] m = new double[params.length], v = new double[params.length];
+		int[] order = data.training.clone();
+		for (int epoch = 1, step = 0; epoch <= epochs; epoch++) {
+			for (int i = order.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int swap = order[i];
+				order[i] = order[j];
+				order[j] = swap;
+			}
+			double trainingLoss = 0;
+			for (int from = 0; from < order.length; from += batchSize) {
+				int to = Math.min(from + batchSize, order.length);
+				double[] gradient = fitter.getGradient(data, order, from, to, step + 1, true);
+				trainingLoss += gradient[params.length];
+				step++;
+				for (int i = 0; i < params.length; i++) {
+					double g = gradient[i] / (to - from);
+					m[i] = EvaluationFitter.BETA1 * m[i] + (1 - EvaluationFitter.BETA1) * g;
+					v[i] = EvaluationFitter.BETA2 * v[i] + (1 - EvaluationFitter.BETA2) * g * g;
+					double mHat = m[i] / (1 - Math.pow(EvaluationFitter.BETA1, step));
+					double vHat = v[i] / (1 - Math.pow(EvaluationFitter.BETA2, step));
+					params[i] -= learningRate * mHat / (Math.sqrt(vHat) + EvaluationFitter.EPSILON);
+				}
+				fitter.constrain();
+			}
+			double validationLoss = fitter.getLoss(data, data.validation);
+			System.out.println(String.format("Epoch %d, training loss %.6f, validation loss %.6f, Elapsed %.3f",
+					epoch, trainingLoss / order.length, validationLoss, (System.nanoTime() - start) / 1e9));
+			if (validationLoss < bestLoss || data.validation.length == 0) {
+				bestLoss = validationLoss;
+				best = params.clone();
+			}
+		}
+
+		System.arraycopy(best, 0, params, 0, params.length);
+		ValueNetwork network = fitter.quantize();
+		network.save(networkPath);
+		System.out.println(String.format("Hidden %d, validation loss %.6f, quantized validation loss %.6f", hidden,
+				bestLoss, fitter.getLoss(data, data.validation)));
+	}
+
+	/**
+	 * Keeps the parameters within what the network can represent, so that every step, and the best one which is
+	 * written, can be quantized. A hidden unit whose accumulator could leave the int16 range for some position,
+	 * bounded as {@link ValueNetwork} checks it, has its bias and weights scaled down into the range. The output
+	 * bias is clipped so that the int output sum cannot overflow.
+	 */
+	private void constrain() {
+		for (int unit = 0; unit < hidden; unit++) {
+			double max = 0, min = 0;
+			for (int macro = 0; macro < 9; macro++) {
+				for (int bit = 0; bit < 9; bit++) {
+					double w1 = params[ValueNetwork.getCellFeature(1, macro, bit) * hidden + unit];
+					double w2 = params[ValueNetwork.getCellFeature(2, macro, bit) * hidden + unit];
+					max += Math.max(0, Math.max(w1, w2));
+					min += Math.min(0, Math.min(w1, w2));
+				}
+				double won1 = params[ValueNetwork.getWonFeature(1, macro) * hidden + unit];
+				double won2 = params[ValueNetwork.getWonFeature(2, macro) * hidden + unit];
+				double tied = params[ValueNetwork.getTiedFeature(macro) * hidden + unit];
+				max += Math.max(0, Math.max(tied, Math.max(won1, won2)));
+				min += Math.min(0, Math.min(tied, Math.min(won1, won2)));
+			}
+			// also bounds each weight and the bias on its own
+			double bound = Math.abs(params[biasOffset + unit]) + Math.max(max, -min);
+			if (bound > MAX_ACCUMULATOR) {
+				double factor = MAX_ACCUMULATOR / bound;
+				params[biasOffset + unit] *= factor;
+				for (int feature = 0; feature < ValueNetwork.INPUTS; feature++) {
+					params[feature * hidden + unit] *= factor;
+				}
+			}
+		}
+		params[outputBiasOffset] = Math.max(-maxOutputBias, Math.min(maxOutputBias, params[outputBiasOffset]));
+	}
+
+	/**
+	 * Rounds the weights to the fixed point of the network and sets the parameters to the rounded values. The output
+	 * weights are scaled as far as int8 allows, at most by {@link #MAX_OUTPUT_SCALE}, and the output scale divides
+	 * that back out.
+	 */
+	private ValueNetwork quantize() {
+		short[] biases = new short[hidden], weights = new short[biasOffset];
+		byte[] outputWeights = new byte[hidden];
+		for (int i = 0; i < biasOffset; i++) {
+			weights[i] = toShort(params[i] * ValueNetwork.ACTIVATION_MAX);
+			params[i] = (double) weights[i] / ValueNetwork.ACTIVATION_MAX;
+		}
+		double maxOutput = 0;
+		for (int i = 0; i < hidden; i++) {
+			biases[i] = toShort(params[biasOffset + i] * ValueNetwork.ACTIVATION_MAX);
+			params[biasOffset + i] = (double) biases[i] / ValueNetwork.ACTIVATION_MAX;
+			maxOutput = Math.max(maxOutput, Math.abs(params[outputOffset + i]));
+		}
+		double scale = maxOutput > 0 ? Math.min(MAX_OUTPUT_SCALE, Byte.MAX_VALUE / maxOutput) : MAX_OUTPUT_SCALE;
+		for (int i = 0; i < hidden; i++) {
+			outputWeights[i] = (byte) Math.round(params[outputOffset + i] * scale);
+			params[outputOffset + i] = outputWeights[i] / scale;
+		}
+		int outputBias = (int) Math.round(params[outputBiasOffset] * ValueNetwork.ACTIVATION_MAX * scale);
+		params[outputBiasOffset] = outputBias / (ValueNetwork.ACTIVATION_MAX * scale);
+		return new ValueNetwork(hidden, biases, weights, outputWeights, outputBias,
+				(float) (ValueNetwork.ACTIVATION_MAX * scale / ValueNetwork.UNITS_PER_LOGIT));
+	}
+
+	private static short toShort(double value) {
+		long rounded = Math.round(value);
+		if (rounded > Short.MAX_VALUE || rounded < Short.MIN_VALUE)
+			throw new RuntimeException("Trained weight out of the int16 range: " + value);
+		return (short) rounded;
+	}
+
+	/** Returns the mean loss of the positions as they are, 0 if there are none **/
+	private double getLoss(Dataset data, int[] positions) {
+		if (positions.length == 0)
+			return 0;
+		return getGradient(data, positions, 0, positions.length, -1, false)[params.length] / positions.length;
+	}
+
+	/**
+	 * Sums the gradient of the cross entropy loss over the positions in the range across the fork/join pool
+	 * @param seed : picks the symmetry of each position, negative to use the positions as they are
+	 * @return the gradient of each parameter, followed by the summed loss
+	 */
+	private double[] getGradient(Dataset data, int[] positions, int from, int to, int seed, boolean gradient) {
+		int grain = Math.max(256, (to - from) / (4 * ForkJoinPool.getCommonPoolParallelism()));
+		return ForkJoinPool.commonPool().invoke(new GradientTask(data, positions, from, to, grain, seed, gradient));
+	}
+
+	private class GradientTask extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+		private final Dataset data;
+		private final int[] positions;
+		private final int from, to, grain, seed;
+		private final boolean gradient;
+
+		public GradientTask(Dataset data, int[] positions, int from, int to, int grain, int seed, boolean gradient) {
+			this.data = data;
+			this.positions = positions;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+			this.seed = seed;
+			this.gradient = gradient;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (to - from > grain) {
+				int middle = (from + to) >>> 1;
+				GradientTask left = new GradientTask(data, positions, from, middle, grain, seed, gradient);
+				GradientTask right = new GradientTask(data, positions, middle, to, grain, seed, gradient);
+				invokeAll(left, right);
+				double[] sum = left.join(), other = right.join();
+				for (int i = 0; i < sum.length; i++) {
+					sum[i] += other[i];
+				}
+				return sum;
+			}
+			double[] sum = new double[params.length + 1], pre = new double[hidden], error = new double[hidden];
+			for (int i = from; i < to; i++) {
+				int position = positions[i], start = data.offsets[position], end = data.offsets[position + 1];
+				int[] symmetry = SYMMETRIES[seed < 0 ? Symmetry.IDENTITY : (position * 31 + seed) * 0x9E3779B9 >>> 29];
+				System.arraycopy(params, biasOffset, pre, 0, hidden);
+				for (int k = start; k < end; k++) {
+					int row = symmetry[data.features[k] & 0xFF] * hidden;
+					for (int j = 0; j < hidden; j++) {
+						pre[j] += params[row + j];
+					}
+				}
+				double z = params[outputBiasOffset];
+				for (int j = 0; j < hidden; j++) {
+					z += params[outputOffset + j] * Math.max(0, Math.min(1, pre[j]));
+				}
+				double target = data.targets[position];
+				// log(1 + e^z) - target * z, the cross entropy of sigmoid(z), computed without overflow
+				sum[params.length] += Math.log1p(Math.exp(-Math.abs(z))) + Math.max(z, 0) - target * z;
+				if (!gradient)
+					continue;
+				double dz = 1 / (1 + Math.exp(-z)) - target;
+				sum[outputBiasOffset] += dz;
+				for (int j = 0; j < hidden; j++) {
+					sum[outputOffset + j] += dz * Math.max(0, Math.min(1, pre[j]));
+					error[j] = pre[j] > 0 && pre[j] < 1 ? dz * params[outputOffset + j] : 0;
+					sum[biasOffset + j] += error[j];
+				}
+				for (int k = start; k < end; k++) {
+					int row = symmetry[data.features[k] & 0xFF] * hidden;
+					for (int j = 0; j < hidden; j++) {
+						sum[row + j] += error[j];
+					}
+				}
+			}
+			return sum;
+		}
+	}
+
+	/** Active features and outcomes of the positions of a data file, the features of position i in [offsets[i], offsets[i + 1]) **/
+	private static class Dataset {
+		private byte[] features;
+		private int[] offsets;
+		/** 1 if player 1 won, 0.5 for a tie, 0 if player 2 won **/
+		private float[] targets;
+		/** Game of each position, see {@link EvaluationFitter#splitByGame} **/
+		private int[] games;
+		private int size;
+		private int[] training, validation;
+
+		/** Reads the data file line by line, in the format EvaluationFitter generate writes **/
+		public static Dataset read(String path) {
+			Dataset data = new Dataset();
+			data.features = new byte[1024 * 32];
+			data.offsets = new int[1025];
+			data.targets = new float[1024];
+			data.games = new int[1024];
+			Field field = new Field();
+			int[] active = new int[ValueNetwork.MAX_ACTIVE];
+			int game = 0;
+			try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					line = line.trim();
+					if (line.isEmpty()) {
+						// the end of a game, unless it had no positions
+						if (data.size > 0 && data.games[data.size - 1] == game)
+							game++;
+						continue;
+					}
+					int space = line.indexOf(' ');
+					if (space < 0)
+						throw new RuntimeException("Invalid position line: " + line);
+					field.parseFromCompactString(line.substring(0, space));
+					int result = Integer.parseInt(line.substring(space + 1).trim());
+					if (result < 0 || result > 2)
+						throw new RuntimeException("Invalid result: " + line);
+					int n = ValueNetwork.getFeatures(field, active), offset = data.offsets[data.size];
+					if (data.size == data.targets.length) {
+						data.offsets = Arrays.copyOf(data.offsets, data.offsets.length * 2);
+						data.targets = Arrays.copyOf(data.targets, data.targets.length * 2);
+						data.games = Arrays.copyOf(data.games, data.games.length * 2);
+					}
+					if (offset + n > data.features.length)
+						data.features = Arrays.copyOf(data.features, Math.max(offset + n, data.features.length * 2));
+					for (int i = 0; i < n; i++) {
+						data.features[offset + i] = (byte) active[i];
+					}
+					data.offsets[data.size + 1] = offset + n;
+					data.games[data.size] = game;
+					data.targets[data.size++] = result == 1 ? 1 : (result == 2 ? 0 : 0.5f);
+				}
+			} catch (IOException | NumberFormatException e) {
+				throw new RuntimeException("Could not read positions from " + path, e);
+			}
+			int[][] split = EvaluationFitter.splitByGame(data.games, data.size);
+			data.training = split[0];
+			data.validation = split[1];
+			return data;
+		}
+	}
+}
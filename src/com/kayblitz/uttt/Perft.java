@@ -0,0 +1,139 @@
+package com.kayblitz.uttt;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the leaf nodes of the move tree to a given depth, to measure the speed of the move generation and to
+ * check makeMove, undo and the forced micro field rules against known counts. The root moves are split across a
+ * fork/join pool, each task working on a per thread copy of the root Field.
+ *
+ * Usage: Perft depth [position] to count from the empty field or a {@link Field#toCompactString()} position,
+ * Perft check [depth] to compare against the stored reference counts.
+ */
+public class Perft {
+
+	/** Reference positions as compact strings with their counts for depth 1, 2, ... **/
+	public static final String[] REFERENCE_POSITIONS = {
+		"AAAAAAAAAAAAAAAAAAAAAID_", // empty field
+		"GRE3BsJKWQMh-DocAPQCqAAE", // forced into the middle left micro field, one micro field won
+		"JyBvCUCAvaA5EQM0cxoAygW8", // free move into 6 micro fields
+		"rgQQ23GgYcZqwrQI6hQEq7ZH", // free move into 5 micro fields
+	};
+	public static final long[][] REFERENCE_COUNTS = {
+		{ 81L, 720L, 6336L, 55080L, 473256L, 4020960L, 33782544L },
+		{ 6L, 34L, 346L, 3577L, 35953L, 361536L },
+		{ 23L, 235L, 2269L, 20302L, 168105L, 1306755L },
+		{ 19L, 170L, 1544L, 11942L, 92053L, 583795L },
+	};
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("Depth or check must be given");
+			return;
+		}
+		if (args[0].equals("check")) {
+			int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+			boolean ok = true;
+			for (int i = 0; i < REFERENCE_POSITIONS.length; i++) {
+				Field field = new Field();
+				field.parseFromCompactString(REFERENCE_POSITIONS[i]);
+				for (int depth = 1; depth <= REFERENCE_COUNTS[i].length && depth <= maxDepth; depth++) {
+					long nodes = run(field, depth);
+					boolean match = nodes == REFERENCE_COUNTS[i][depth - 1];
+					ok &= match;
+					System.out.println(String.format("%s depth %d: %d, expected %d %s", REFERENCE_POSITIONS[i], depth,
+							nodes, REFERENCE_COUNTS[i][depth - 1], match ? "OK" : "MISMATCH"));
+				}
+			}
+			System.out.println(ok ? "All counts match" : "Counts do not match");
+			if (!ok)
+				System.exit(1);
+		} else {
+			Field field = new Field();
+			if (args.length > 1)
+				field.parseFromCompactString(args[1]);
+			run(field, Integer.parseInt(args[0]));
+		}
+	}
+
+	/** Counts the leaf nodes to the depth in parallel and prints the count and nodes per second **/
+	public static long run(Field field, int depth) {
+		long start = System.nanoTime();
+		long nodes = perftParallel(field, depth);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("Depth %d, Nodes %d, Elapsed %.3f, Nodes per second %d",
+				depth, nodes, seconds, (long) (nodes / Math.max(seconds, 1e-9))));
+		return nodes;
+	}
+
+	/** Counts the leaf nodes to the depth, splitting the root moves across the common fork/join pool **/
+	public static long perftParallel(Field field, int depth) {
+		if (depth <= 1)
+			return perft(field, getNextId(field), depth, new int[depth + 1][Field.COLS * Field.ROWS]);
+		int[] moves = new int[Field.COLS * Field.ROWS];
+		int numMoves = field.getWinner() < 0 ? field.getAvailableMoves(moves) : 0;
+		PerftTask[] tasks = new PerftTask[numMoves];
+		for (int i = 0; i < numMoves; i++) {
+			tasks[i] = new PerftTask(field, moves[i], getNextId(field), depth - 1);
+		}
+		return ForkJoinPool.commonPool().invoke(new RecursiveTask<Long>() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected Long compute() {
+				invokeAll(tasks);
+				long nodes = 0;
+				for (PerftTask task : tasks) {
+					nodes += task.join();
+				}
+				return nodes;
+			}
+		});
+	}
+
+	/** Counts the leaf nodes to the depth on a single thread, with one move buffer per remaining depth **/
+	public static long perft(Field field, int id, int depth, int[][] moveBuffers) {
+		if (field.getWinner() >= 0)
+			return 0;
+		int[] moves = moveBuffers[depth];
+		int numMoves = field.getAvailableMoves(moves);
+		if (depth <= 1)
+			return depth == 1 ? numMoves : 1;
+		long nodes = 0;
+		for (int i = 0; i < numMoves; i++) {
+			field.makeMove(moves[i], id, true);
+			nodes += perft(field, id == 1 ? 2 : 1, depth - 1, moveBuffers);
+			field.undo();
+		}
+		return nodes;
+	}
+
+	/** Player 1 always moves first, so the player to move follows from the number of stones **/
+	private static int getNextId(Field field) {
+		int stones = 0;
+		for (int i = 0; i < 9; i++) {
+			stones += Integer.bitCount(field.getOccupied(1, i) | field.getOccupied(2, i));
+		}
+		return stones % 2 == 0 ? 1 : 2;
+	}
+
+	private static class PerftTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+		private final Field root;
+		private final int move, id, depth;
+
+		public PerftTask(Field root, int move, int id, int depth) {
+			this.root = root;
+			this.move = move;
+			this.id = id;
+			this.depth = depth;
+		}
+
+		@Override
+		protected Long compute() {
+			Field field = Field.copyForThread(root);
+			field.makeMove(move, id, false);
+			return perft(field, id == 1 ? 2 : 1, depth, new int[depth + 1][Field.COLS * Field.ROWS]);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.kayblitz.uttt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the engine protocol line by line straight from the bytes of the input stream. Lines are copied into a
+ * reused buffer and split into tokens in place, so reading commands and field data does not create Strings.
+ */
+public class ProtocolReader {
+	private final InputStream in;
+	private final byte[] buffer;
+	private int bufferPosition, bufferLimit;
+	/** Current line without the line terminator, grown when a longer line comes in **/
+	private byte[] line;
+	private int lineLength;
+	/** Position of the next token in the line, and bounds of the last token read **/
+	private int position, tokenStart, tokenEnd;
+
+	public ProtocolReader(InputStream in) {
+		this.in = in;
+		buffer = new byte[1 << 13];
+		line = new byte[512];
+	}
+
+	/** Returns the ASCII bytes of a String, for the token constants compared with {@link #tokenEquals(byte[])} **/
+	public static byte[] getBytes(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) s.charAt(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Reads the next line, dropping the '\r' of Windows line endings
+	 * @return false at the end of the input
+	 */
+	public boolean readLine() {
+		lineLength = 0;
+		position = 0;
+		tokenStart = tokenEnd = 0;
+		int b;
+		while ((b = read()) != '\n') {
+			if (b == -1)
+				return lineLength > 0;
+			if (b == '\r')
+				continue;
+			if (lineLength == line.length)
+				line = Arrays.copyOf(line, line.length * 2);
+			line[lineLength++] = (byte) b;
+		}
+		return true;
+	}
+
+	private int read() {
+		if (bufferPosition == bufferLimit) {
+			try {
+				bufferLimit = in.read(buffer, 0, buffer.length);
+			} catch (IOException e) {
+				throw new RuntimeException("Could not read engine input", e);
+			}
+			bufferPosition = 0;
+			if (bufferLimit <= 0) {
+				bufferLimit = 0;
+				return -1;
+			}
+		}
+		return buffer[bufferPosition++] & 0xFF; // only the end of the input is -1
+	}
+
+	public boolean isEmptyLine() {
+		return lineLength == 0;
+	}
+
+	/**
+	 * Moves to the next space separated token of the line
+	 * @return false if the line has no more tokens
+	 */
+	public boolean nextToken() {
+		while (position < lineLength && line[position] == ' ') {
+			position++;
+		}
+		tokenStart = position;
+		while (position < lineLength && line[position] != ' ') {
+			position++;
+		}
+		tokenEnd = position;
+		return tokenEnd > tokenStart;
+	}
+
+	/** Returns true if the last token read equals the bytes **/
+	public boolean tokenEquals(byte[] bytes) {
+		if (tokenEnd - tokenStart != bytes.length)
+			return false;
+		for (int i = 0; i < bytes.length; i++) {
+			if (line[tokenStart + i] != bytes[i])
+				return false;
+		}
+		return true;
+	}
+
+	/** Reads the next token as an integer **/
+	public int nextInt() {
+		nextToken();
+		return parseInt(tokenStart, tokenEnd);
+	}
+
+	/** Reads the next token as a double. Only used by the tuning commands, so it goes through a String. **/
+	public double nextDouble() {
+		nextToken();
+		return Double.parseDouble(new String(line, tokenStart, tokenEnd - tokenStart,
+				StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Reads the next token as comma separated integers, such as the field and macroboard updates
+	 * @return the number of values read
+	 */
+	public int nextValues(int[] values) {
+		nextToken();
+		int n = 0;
+		for (int start = tokenStart; start < tokenEnd; n++) {
+			int end = start;
+			while (end < tokenEnd && line[end] != ',') {
+				end++;
+			}
+			if (n == values.length)
+				throw new RuntimeException("Too many values: " + getLine());
+			values[n] = parseInt(start, end);
+			start = end + 1;
+		}
+		return n;
+	}
+
+	private int parseInt(int start, int end) {
+		boolean negative = start < end && line[start] == '-';
+		if (negative)
+			start++;
+		if (start == end)
+			throw new RuntimeException("Invalid number: " + getLine());
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = line[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new RuntimeException("Invalid number: " + getLine());
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/** Returns the current line as a String, for error messages **/
+	public String getLine() {
+		return new String(line, 0, lineLength, StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,131 @@
+package com.kayblitz.uttt;
+
+/**
+ * The 8 symmetries of the square. Rotating or mirroring the whole 9x9 field applies the same symmetry to the
+ * macro field and to every micro field at once, and keeps the forced micro field rule intact, so symmetric
+ * positions have the same value. Transform 0 is the identity.
+ */
+public class Symmetry {
+
+	public static final int IDENTITY = 0, ROTATE_90 = 1, ROTATE_180 = 2, ROTATE_270 = 3,
+			MIRROR_COLUMNS = 4, MIRROR_ROWS = 5, TRANSPOSE = 6, ANTI_TRANSPOSE = 7;
+	public static final int NUM_TRANSFORMS = 8;
+	/** Transform that undoes each transform **/
+	public static final int[] INVERSE = { IDENTITY, ROTATE_270, ROTATE_180, ROTATE_90,
+			MIRROR_COLUMNS, MIRROR_ROWS, TRANSPOSE, ANTI_TRANSPOSE };
+	/** Cell index (row * COLS + column) to transformed cell index, indexed [transform][cell] **/
+	public static final int[][] CELLS = new int[NUM_TRANSFORMS][Field.COLS * Field.ROWS];
+	/** Micro field index to transformed micro field index, indexed [transform][microIndex] **/
+	public static final int[][] FIELDS = new int[NUM_TRANSFORMS][9];
+	/** 9 bit mask of a 3x3 field to transformed mask, used for micro field cells and macro field masks alike **/
+	public static final int[][] MASKS = new int[NUM_TRANSFORMS][Field.FULL + 1];
+
+	static {
+		for (int t = 0; t < NUM_TRANSFORMS; t++) {
+			for (int col = 0; col < Field.COLS; col++) {
+				for (int row = 0; row < Field.ROWS; row++) {
+					CELLS[t][row * Field.COLS + col] = transform(t, col, row, Field.COLS - 1);
+				}
+			}
+			for (int i = 0; i < 9; i++) {
+				FIELDS[t][i] = transform(t, i % 3, i / 3, 2);
+			}
+			for (int mask = 0; mask <= Field.FULL; mask++) {
+				for (int i = 0; i < 9; i++) {
+					if ((mask & (1 << i)) != 0)
+						MASKS[t][mask] |= 1 << FIELDS[t][i];
+				}
+			}
+		}
+	}
+
+	/** Returns the transformed index (row * size + column) of the coordinates on a square of side max + 1 **/
+	private static int transform(int t, int col, int row, int max) {
+		int c, r;
+		switch (t) {
+		case ROTATE_90: c = max - row; r = col; break;
+		case ROTATE_180: c = max - col; r = max - row; break;
+		case ROTATE_270: c = row; r = max - col; break;
+		case MIRROR_COLUMNS: c = max - col; r = row; break;
+		case MIRROR_ROWS: c = col; r = max - row; break;
+		case TRANSPOSE: c = row; r = col; break;
+		case ANTI_TRANSPOSE: c = max - row; r = max - col; break;
+		default: c = col; r = row; break;
+		}
+		return r * (max + 1) + c;
+	}
+
+	/** Returns the transform that maps the position to its canonical frame, the one with the smallest hash **/
+	public static int getCanonicalTransform(Field field) {
+		int best = IDENTITY;
+		long bestHash = field.getSymmetricHash(IDENTITY);
+		for (int t = 1; t < NUM_TRANSFORMS; t++) {
+			long hash = field.getSymmetricHash(t);
+			if (hash < bestHash) {
+				bestHash = hash;
+				best = t;
+			}
+		}
+		return best;
+	}
+
+	/** Returns a hash that is equal for all 8 symmetric versions of the position **/
+	public static long getCanonicalHash(Field field) {
+		long best = field.getSymmetricHash(IDENTITY);
+		for (int t = 1; t < NUM_TRANSFORMS; t++) {
+			best = Math.min(best, field.getSymmetricHash(t));
+		}
+		return best;
+	}
+
+	/** Maps a move (cell index) from the position into the canonical frame of the transform **/
+	public static int toCanonical(int move, int transform) {
+		return CELLS[transform][move];
+	}
+
+	/** Maps a move (cell index) from the canonical frame of the transform back into the position **/
+	public static int fromCanonical(int move, int transform) {
+		return CELLS[INVERSE[transform]][move];
+	}
+
+	/** Returns true if the transform maps the position onto itself **/
+	public static boolean isSymmetric(Field field, int transform) {
+		int[] fields = FIELDS[transform], masks = MASKS[transform];
+		if (masks[field.getPlayable()] != field.getPlayable())
+			return false;
+		for (int i = 0; i < 9; i++) {
+			if (masks[field.getOccupied(1, i)] != field.getOccupied(1, fields[i]) ||
+					masks[field.getOccupied(2, i)] != field.getOccupied(2, fields[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes moves leading to positions symmetric to those of an earlier move. Only the move with the lowest
+	 * cell index of each group of symmetric moves is kept.
+	 * @param moves : moves as cell indices, filtered in place
+	 * @return the number of moves left
+	 */
+	public static int removeSymmetricMoves(Field field, int[] moves, int numMoves) {
+		int symmetries = 0;
+		for (int t = 1; t < NUM_TRANSFORMS; t++) {
+			if (isSymmetric(field, t))
+				symmetries |= 1 << t;
+		}
+		if (symmetries == 0)
+			return numMoves; // most positions have no symmetry
+		int n = 0;
+		for (int i = 0; i < numMoves; i++) {
+			int move = moves[i];
+			boolean lowest = true;
+			for (int t = 1; t < NUM_TRANSFORMS && lowest; t++) {
+				if ((symmetries & (1 << t)) != 0 && CELLS[t][move] < move)
+					lowest = false;
+			}
+			if (lowest)
+				moves[n++] = move;
+		}
+		return n;
+	}
+}
@@ -61,6 +61,7 @@ public class TranspositionTable {
 		return table.get(zobristKey);
 	}
 	
+	/** Loops over every cell. Prefer {@link Field#getHash()}, which is updated on every move. **/
 	public long calcZobristKey(int[][] field) {
 		long zobristKey = 0;
 		for (int col = 0; col < Field.COLS; col++) {
@@ -1,6 +1,11 @@
 package com.kayblitz.uttt.bot;
 
+import java.io.File;
+
+import com.kayblitz.uttt.EvaluationCache;
 import com.kayblitz.uttt.Field;
+import com.kayblitz.uttt.FieldAccumulator;
+import com.kayblitz.uttt.MicroField;
 
 public class Evaluation {
 	
@@ -9,21 +14,286 @@ public class Evaluation {
 	public static final int ADVANCED = 2;
 	public static final int ADVANCED_OPTIMIZED = 3;
 	public static final int COMPREHENSIVE = 4;
+	/** {@link ValueNetwork} read from {@link #NETWORK_FILE}, no weights are shipped, EvaluationFitter train writes them **/
+	public static final int NETWORK = 5;
+	
+	/** Weight file of the network evaluation, read from the working directory when the network is first used **/
+	public static final String NETWORK_FILE = "network.bin";
+	private static ValueNetwork network;
 	
 	public static final int WIN = 999;
 	public static final int TIE = 0;
 	
+	/** Classes of micro fields by their position on the macro field, they are weighted differently **/
+	private static final int MIDDLE = 0, CORNER = 1, SIDE = 2;
+	/** Micro fields in the order the comprehensive evaluation adds them, middle then corners then sides **/
+	private static final int[] COMPREHENSIVE_ORDER = { 4, 0, 2, 6, 8, 1, 3, 5, 7 };
+	private static final int[] MICRO_CLASS = { CORNER, SIDE, CORNER, SIDE, MIDDLE, SIDE, CORNER, SIDE, CORNER };
+	
+	// The evaluation functions below are compiled into tables indexed by the base 3 state of the macro field or 
+	// of a micro field (see MicroField), holding the value for player 1. Every term is symmetric between the 
+	// players, so player 2 gets the negated value. Micro fields are added in the same order as the original
+	// functions did, which keeps the double evaluations bit for bit identical.
+	private static final int[] SIMPLE_MACRO = new int[MicroField.STATES];
+	private static final int[] CONNECTING_MACRO = new int[MicroField.STATES];
+	private static final int[] CONNECTING_MICRO = new int[MicroField.STATES];
+	private static final int[] ADVANCED_MACRO = new int[MicroField.STATES];
+	private static final int[] ADVANCED_MICRO = new int[MicroField.STATES];
+	/** 
+	 * Tables of every type for the incremental, child and weighted evaluations. {@link #setWeights} replaces 
+	 * the array with a copy, and the tables of a type as a whole, so a search holding them keeps consistent ones.
+	 * Reading them needs no lock.
+	 */
+	private static volatile TableEvaluation[] tables = new TableEvaluation[5];
+	
+	static {
+		double[] advancedOptimizedMacro = new double[MicroField.STATES];
+		double[] advancedOptimizedMicro = new double[MicroField.STATES];
+		double[] comprehensiveMacro = new double[MicroField.STATES];
+		// indexed [micro field class][state]
+		double[][] comprehensiveMicro = new double[3][MicroField.STATES];
+		int[][] cells = new int[3][3];
+		for (int state = 0; state < MicroField.STATES; state++) {
+			for (int i = 0, s = state; i < 9; i++, s /= 3) {
+				cells[i % 3][i / 3] = s % 3;
+			}
+			SIMPLE_MACRO[state] = evaluateMacroSimple(cells, 1, 2);
+			CONNECTING_MACRO[state] = evaluateMacroConnecting(cells, 1, 2);
+			CONNECTING_MICRO[state] = evaluateMiniFieldConnecting(cells, 1, 2);
+			ADVANCED_MACRO[state] = evaluateMacroAdvanced(cells, 1, 2);
+			ADVANCED_MICRO[state] = evaluateMicroFieldAdvanced(cells, 1, 2);
+			advancedOptimizedMacro[state] = evaluateMacroAdvancedOptimized(cells, 1, 2);
+			advancedOptimizedMicro[state] = evaluateMicroFieldAdvancedOptimized(cells, 1, 2);
+			comprehensiveMacro[state] = evaluateMacroComprehensive(cells, 1, 2);
+			comprehensiveMicro[MIDDLE][state] = evaluateMicroMiddleComprehensive(cells, 1, 2);
+			comprehensiveMicro[CORNER][state] = evaluateMicroCornerComprehensive(cells, 1, 2);
+			comprehensiveMicro[SIDE][state] = evaluateMicroSideComprehensive(cells, 1, 2);
+		}
+		double[][] microTables = new double[9][];
+		for (int i = 0; i < 9; i++) {
+			microTables[i] = comprehensiveMicro[MICRO_CLASS[i]];
+		}
+		tables[SIMPLE] = TableEvaluation.of(toDouble(SIMPLE_MACRO), new double[MicroField.STATES], null);
+		tables[CONNECTING] = TableEvaluation.of(toDouble(CONNECTING_MACRO), toDouble(CONNECTING_MICRO), null);
+		tables[ADVANCED] = TableEvaluation.of(toDouble(ADVANCED_MACRO), toDouble(ADVANCED_MICRO), null);
+		tables[ADVANCED_OPTIMIZED] = TableEvaluation.of(advancedOptimizedMacro, advancedOptimizedMicro,
+				getDefaultWeights(ADVANCED_OPTIMIZED));
+		tables[COMPREHENSIVE] = new TableEvaluation(comprehensiveMacro, microTables, COMPREHENSIVE_ORDER,
+				getDefaultWeights(COMPREHENSIVE));
+	}
+	
+	private static double[] toDouble(int[] table) {
+		double[] values = new double[table.length];
+		for (int i = 0; i < table.length; i++) {
+			values[i] = table[i];
+		}
+		return values;
+	}
+	
+	/** Does nothing but makes sure the tables are generated, so it can be done before the first timed move **/
+	public static void loadTables() {
+	}
+	
+	/** Returns the compiled tables of the evaluation type, which a search can keep using across {@link #setWeights} **/
+	public static TableEvaluation getTableEvaluation(int type) {
+		checkType(type);
+		return tables[type];
+	}
+	
+	/**
+	 * Returns an upper bound of how much the next move of the player can change the evaluation of the type in
+	 * favour of that player, see {@link TableEvaluation#getMaxMoveGain}. Infinite for the network, whose output
+	 * is not bounded per move.
+	 */
+	public static double getMaxMoveGain(Field field, int type, int id) {
+		if (type == NETWORK)
+			return Double.POSITIVE_INFINITY;
+		return getTableEvaluation(type).getMaxMoveGain(field, id);
+	}
+	
+	/** Returns the weights of the {@link #ADVANCED_OPTIMIZED} or {@link #COMPREHENSIVE} evaluation **/
+	public static EvaluationWeights getWeights(int type) {
+		if (type != ADVANCED_OPTIMIZED && type != COMPREHENSIVE)
+			throw new RuntimeException("Evaluation type has no weights");
+		return getTableEvaluation(type).getWeights();
+	}
+	
+	/**
+	 * Replaces the weighted evaluation type with the weights compiled into tables, for example those written by
+	 * {@link com.kayblitz.uttt.EvaluationFitter}. Fields with an incremental evaluation of the type and searches
+	 * holding its tables keep the previous weights until they ask for the type again.
+	 */
+	public static void setWeights(EvaluationWeights weights) {
+		TableEvaluation compiled = TableEvaluation.compile(weights);
+		synchronized (Evaluation.class) {
+			TableEvaluation[] replaced = tables.clone();
+			replaced[weights.getType()] = compiled;
+			tables = replaced;
+		}
+	}
+	
+	/** Returns the network of the {@link #NETWORK} evaluation, reading {@link #NETWORK_FILE} if none is set **/
+	public static synchronized ValueNetwork getNetwork() {
+		if (network == null) {
+			if (!new File(NETWORK_FILE).isFile())
+				throw new RuntimeException("No network weights, write a trained network to " + NETWORK_FILE
+						+ " or set one with setNetwork");
+			network = ValueNetwork.load(NETWORK_FILE);
+		}
+		return network;
+	}
+	
+	/**
+	 * Returns true if the {@link #NETWORK} evaluation can be used: a network was set, or {@link #NETWORK_FILE}
+	 * exists. No trained weights come with the bots, so the bots check this before accepting the type.
+	 */
+	public static synchronized boolean hasNetwork() {
+		return network != null || new File(NETWORK_FILE).isFile();
+	}
+	
+	/** Sets the network of the {@link #NETWORK} evaluation, fields already using the previous one keep it **/
+	public static synchronized void setNetwork(ValueNetwork network) {
+		Evaluation.network = network;
+	}
+	
+	/**
+	 * Makes the field maintain the evaluation of the type on every make and undo, so it can be read with
+	 * {@link #evaluateFieldIncremental} at no cost. The field keeps it until another type is set.
+	 */
+	public static void setIncrementalEvaluation(Field field, int type) {
+		if (type == NETWORK) {
+			field.setAccumulator(getNetwork().newAccumulator());
+		} else {
+			field.setAccumulator(getTableEvaluation(type).newAccumulator());
+		}
+	}
+	
+	/**
+	 * Returns a value for player 1 as the value for the bot. Player 2 subtracts it from 0.0 rather than negating
+	 * it, so a neutral position is 0.0 and not -0.0, which Double.compare orders below 0.0.
+	 */
+	static double forBot(double heuristic, int botId) {
+		return botId == 1 ? heuristic : 0.0 - heuristic;
+	}
+	
+	/**
+	 * Returns the evaluation maintained by the field, set with {@link #setIncrementalEvaluation}. Equal to the 
+	 * evaluateField function of the type, up to the fixed point rounding of the double table evaluations.
+	 */
+	public static double evaluateFieldIncremental(Field field, int botId) {
+		double heuristic = field.getAccumulator().evaluate();
+		return forBot(heuristic, botId);
+	}
+	
+	/**
+	 * Evaluates every child of the position in one pass without making the moves, see 
+	 * {@link TableEvaluation#evaluateChildren}. The values equal {@link #evaluateFieldIncremental} of each child.
+	 * @param id : player making the moves, which must be available moves of the position
+	 * @param heuristics : receives the value of each child for the bot
+	 */
+	public static void evaluateChildren(Field field, int type, int id, int[] moves, int numMoves, int botId,
+			double[] heuristics) {
+		getTableEvaluation(type).evaluateChildren(field, id, moves, numMoves, botId, heuristics);
+	}
+	
+	/**
+	 * Evaluates the field with the evaluation of the type. With a cache, the value is looked up by the hash of
+	 * the position first and stored for player 1 after evaluating, so a cache must only be used for one type.
+	 * @param cache : cache of earlier evaluations, or null to always evaluate
+	 */
+	public static double evaluateField(Field field, int type, int botId, EvaluationCache cache) {
+		double heuristic;
+		if (cache != null) {
+			heuristic = cache.probe(field.getHash());
+			if (!Double.isNaN(heuristic))
+				return forBot(heuristic, botId);
+		}
+		switch (type) {
+		case SIMPLE:
+			heuristic = evaluateFieldSimple(field, 1, 2);
+			break;
+		case CONNECTING:
+			heuristic = evaluateFieldConnecting(field, 1, 2);
+			break;
+		case ADVANCED:
+			heuristic = evaluateFieldAdvanced(field, 1, 2);
+			break;
+		case ADVANCED_OPTIMIZED:
+			heuristic = evaluateFieldAdvancedOptimized(field, 1, 2);
+			break;
+		case COMPREHENSIVE:
+			heuristic = evaluateFieldComprehensive(field, 1, 2);
+			break;
+		case NETWORK:
+			heuristic = getNetwork().evaluate(field);
+			break;
+		default:
+			throw new RuntimeException("Invalid heuristic evaluation function");
+		}
+		if (cache != null)
+			cache.store(field.getHash(), heuristic);
+		return forBot(heuristic, botId);
+	}
+	
+	private static void checkType(int type) {
+		if (type < SIMPLE || type > COMPREHENSIVE)
+			throw new RuntimeException("Invalid heuristic evaluation function");
+	}
+	
 	/**
 	 * A more positive value indicates that the bot has won more micro fields
 	 */
 	public static int evaluateFieldSimple(Field field, int botId, int opponentId) {
+		int heuristic = SIMPLE_MACRO[field.getMacroState()];
+		return botId == 1 ? heuristic : -heuristic;
+	}
+	
+	/**
+	 * Same as simple, but also gives more points for having two connecting micro field wins.
+	 */
+	public static int evaluateFieldConnecting(Field field, int botId, int opponentId) {
+		int heuristic = CONNECTING_MACRO[field.getMacroState()];
+		for (int i = 0; i < 9; i++) {
+			heuristic += CONNECTING_MICRO[field.getMicroState(i)];
+		}
+		return botId == 1 ? heuristic : -heuristic;
+	}
+	
+	/**
+	 * Same as simple, but also gives more points for having two in-a-row markers.
+	 */
+	public static int evaluateFieldAdvanced(Field field, int botId, int opponentId) {
+		int heuristic = ADVANCED_MACRO[field.getMacroState()];
+		for (int i = 0; i < 9; i++) {
+			heuristic += ADVANCED_MICRO[field.getMicroState(i)];
+		}
+		return botId == 1 ? heuristic : -heuristic;
+	}
+	
+	/**
+	 * Same as advanced, with optimized weights.
+	 */
+	public static double evaluateFieldAdvancedOptimized(Field field, int botId, int opponentId) {
+		double heuristic = getTableEvaluation(ADVANCED_OPTIMIZED).evaluate(field);
+		return forBot(heuristic, botId);
+	}
+	
+	/**
+	 * Same as advanced optimized, but micro fields are weighted by their position on the macro field.
+	 */
+	public static double evaluateFieldComprehensive(Field field, int botId, int opponentId) {
+		double heuristic = getTableEvaluation(COMPREHENSIVE).evaluate(field);
+		return forBot(heuristic, botId);
+	}
+	
+	/** Macro field part of {@link #evaluateFieldSimple}, the generator of its macro table **/
+	private static int evaluateMacroSimple(int[][] macroField, int botId, int opponentId) {
 		int heuristic = 0;
-		int[][] microField = field.getMacroField();
 		for (int row = 0; row < 3; row++) {
 			for (int col = 0; col < 3; col++) {
-				if (microField[col][row] == botId) {
+				if (macroField[col][row] == botId) {
 					heuristic++;
-				} else if (microField[col][row] == opponentId) {
+				} else if (macroField[col][row] == opponentId) {
 					heuristic--;
 				}
 			}
@@ -31,13 +301,10 @@ public class Evaluation {
 		return heuristic;
 	}
 	
-	/**
-	 * Same as simple, but also gives more points for having two connecting micro field wins.
-	 */
-	public static int evaluateFieldConnecting(Field field, int botId, int opponentId) {
+	/** Macro field part of {@link #evaluateFieldConnecting}, the generator of its macro table **/
+	private static int evaluateMacroConnecting(int[][] macroField, int botId, int opponentId) {
 		int heuristic = 0;
 		int botConnected, opponentConnected;
-		int[][] macroField = field.getMacroField();
 		for (int row = 0; row < 3; row++) {
 			for (int col = 0; col < 3; col++) {
 				// points for winning mini TTT field
@@ -142,29 +409,12 @@ public class Evaluation {
 		} else if (opponentConnected > 1 && botConnected == 0) {
 			heuristic -= 20;
 		}
-		// check 2 in a row in mini fields
-		int[][] mField = new int[3][3];
-		for (int i = 0; i < 9; i++) {
-			heuristic += evaluateMiniFieldConnecting(field, mField, i, botId, opponentId);
-		}
 		return heuristic;
 	}
 	
-	private static int evaluateMiniFieldConnecting(Field field, int[][] microField, int miniIndex, int botId, int opponentId) {
+	private static int evaluateMiniFieldConnecting(int[][] microField, int botId, int opponentId) {
 		int heuristic = 0;
 		int botConnected, opponentConnected;
-		int topLeftColumn = (miniIndex % 3) * 3;
-		int topLeftRow = (miniIndex / 3) * 3;
-		int[][] mField = field.getField();
-		microField[0][0] = mField[topLeftColumn][topLeftRow];
-		microField[1][0] = mField[topLeftColumn + 1][topLeftRow];
-		microField[2][0] = mField[topLeftColumn + 2][topLeftRow];
-		microField[0][1] = mField[topLeftColumn][topLeftRow + 1];
-		microField[1][1] = mField[topLeftColumn + 1][topLeftRow + 1];
-		microField[2][1] = mField[topLeftColumn + 2][topLeftRow + 1];
-		microField[0][2] = mField[topLeftColumn][topLeftRow + 2];
-		microField[1][2] = mField[topLeftColumn + 1][topLeftRow + 2];
-		microField[2][2] = mField[topLeftColumn + 2][topLeftRow + 2];
 		for (int row = 0; row < 3; row++) {
 			// check horizontal 2 in a row
 			botConnected = 0;
@@ -273,13 +523,10 @@ public class Evaluation {
 	private static final int MICRO_CORNER = 2;
 	private static final int MICRO_SIDE = 1;
 	
-	/**
-	 * Same as simple, but also gives more points for having two in-a-row markers.
-	 */
-	public static int evaluateFieldAdvanced(Field field, int botId, int opponentId) {
+	/** Macro field part of {@link #evaluateFieldAdvanced}, the generator of its macro table **/
+	private static int evaluateMacroAdvanced(int[][] macroField, int botId, int opponentId) {
 		int heuristic = 0;
 		int botConnected, opponentConnected;
-		int[][] macroField = field.getMacroField();
 		// check field positions
 		// middle
 		if (macroField[1][1] == botId) {
@@ -425,29 +672,12 @@ public class Evaluation {
 		} else if (opponentConnected > 1 && botConnected == 0) {
 			heuristic -= MACRO_TWO_IN_A_ROW;
 		}
-		// check 2 in a row in mini fields
-		int[][] micro = new int[3][3];
-		for (int i = 0; i < 9; i++) {
-			heuristic += evaluateMicroFieldAdvanced(field, micro, i, botId, opponentId);
-		}
 		return heuristic;
 	}
 	
-	private static int evaluateMicroFieldAdvanced(Field field, int[][] microField, int miniIndex, int botId, int opponentId) {
+	private static int evaluateMicroFieldAdvanced(int[][] microField, int botId, int opponentId) {
 		int heuristic = 0;
 		int botConnected, opponentConnected;
-		int topLeftColumn = (miniIndex % 3) * 3;
-		int topLeftRow = (miniIndex / 3) * 3;
-		int[][] mField = field.getField();
-		microField[0][0] = mField[topLeftColumn][topLeftRow];
-		microField[1][0] = mField[topLeftColumn + 1][topLeftRow];
-		microField[2][0] = mField[topLeftColumn + 2][topLeftRow];
-		microField[0][1] = mField[topLeftColumn][topLeftRow + 1];
-		microField[1][1] = mField[topLeftColumn + 1][topLeftRow + 1];
-		microField[2][1] = mField[topLeftColumn + 2][topLeftRow + 1];
-		microField[0][2] = mField[topLeftColumn][topLeftRow + 2];
-		microField[1][2] = mField[topLeftColumn + 1][topLeftRow + 2];
-		microField[2][2] = mField[topLeftColumn + 2][topLeftRow + 2];
 		// check field positions
 		// middle
 		if (microField[1][1] == botId) {
@@ -607,13 +837,10 @@ public class Evaluation {
 	/** Max possible value for the optimized evaluation. This value is not obtainable through regular play. **/
 	public static final double MAX_HEURISTIC_OPTIMIZED = 53.848553032947635;
 	
-	/**
-	 * Same as simple, but also gives more points for having two in-a-row markers.
-	 */
-	public static double evaluateFieldAdvancedOptimized(Field field, int botId, int opponentId) {
+	/** Macro field part of {@link #evaluateFieldAdvancedOptimized}, the generator of its macro table **/
+	private static double evaluateMacroAdvancedOptimized(int[][] macroField, int botId, int opponentId) {
 		double heuristic = 0;
 		int botConnected, opponentConnected;
-		int[][] macroField = field.getMacroField();
 		// check field positions
 		// middle
 		if (macroField[1][1] == botId) {
@@ -759,29 +986,12 @@ public class Evaluation {
 		} else if (opponentConnected > 1 && botConnected == 0) {
 			heuristic -= MACRO_TWO_IN_A_ROW_OPTIMIZED;
 		}
-		// check 2 in a row in mini fields
-		int[][] micro = new int[3][3];
-		for (int i = 0; i < 9; i++) {
-			heuristic += evaluateMicroFieldAdvancedOptimized(field, micro, i, botId, opponentId);
-		}
 		return heuristic;
 	}
 	
-	private static double evaluateMicroFieldAdvancedOptimized(Field field, int[][] microField, int miniIndex, int botId, int opponentId) {
+	private static double evaluateMicroFieldAdvancedOptimized(int[][] microField, int botId, int opponentId) {
 		double heuristic = 0;
 		int botConnected, opponentConnected;
-		int topLeftColumn = (miniIndex % 3) * 3;
-		int topLeftRow = (miniIndex / 3) * 3;
-		int[][] mField = field.getField();
-		microField[0][0] = mField[topLeftColumn][topLeftRow];
-		microField[1][0] = mField[topLeftColumn + 1][topLeftRow];
-		microField[2][0] = mField[topLeftColumn + 2][topLeftRow];
-		microField[0][1] = mField[topLeftColumn][topLeftRow + 1];
-		microField[1][1] = mField[topLeftColumn + 1][topLeftRow + 1];
-		microField[2][1] = mField[topLeftColumn + 2][topLeftRow + 1];
-		microField[0][2] = mField[topLeftColumn][topLeftRow + 2];
-		microField[1][2] = mField[topLeftColumn + 1][topLeftRow + 2];
-		microField[2][2] = mField[topLeftColumn + 2][topLeftRow + 2];
 		// check field positions
 		// middle
 		if (microField[1][1] == botId) {
@@ -955,13 +1165,22 @@ public class Evaluation {
 	/** Max possible value for the comprehensive evaluation. This value is not obtainable through regular play. **/
 	public static final double MAX_HEURISTIC_COMP = 133.49543311667102;
 	
-	/**
-	 * Same as simple, but also gives more points for having two in-a-row markers.
-	 */
-	public static double evaluateFieldComprehensive(Field field, int botId, int opponentId) {
+	/** Returns the weights above of the weighted evaluation type, in the order of {@link EvaluationWeights#getNames} **/
+	private static EvaluationWeights getDefaultWeights(int type) {
+		if (type == ADVANCED_OPTIMIZED)
+			return new EvaluationWeights(type, new double[] { MACRO_TWO_IN_A_ROW_OPTIMIZED, MACRO_MIDDLE_OPTIMIZED,
+					MACRO_CORNER_OPTIMIZED, MACRO_SIDE_OPTIMIZED, MICRO_TWO_IN_A_ROW_OPTIMIZED, MICRO_MIDDLE_OPTIMIZED,
+					MICRO_CORNER_OPTIMIZED, MICRO_SIDE_OPTIMIZED });
+		return new EvaluationWeights(type, new double[] { MACRO_TWO_IN_A_ROW_COMP, MACRO_MIDDLE_COMP,
+				MACRO_CORNER_COMP, MACRO_SIDE_COMP, MICRO_TWO_IN_A_ROW_COMP, MICRO_MIDDLE_MIDDLE_COMP,
+				MICRO_MIDDLE_CORNER_COMP, MICRO_MIDDLE_SIDE_COMP, MICRO_CORNER_MIDDLE_COMP, MICRO_CORNER_CORNER_COMP,
+				MICRO_CORNER_SIDE_COMP, MICRO_SIDE_MIDDLE_COMP, MICRO_SIDE_CORNER_COMP, MICRO_SIDE_SIDE_COMP });
+	}
+	
+	/** Macro field part of {@link #evaluateFieldComprehensive}, the generator of its macro table **/
+	private static double evaluateMacroComprehensive(int[][] macroField, int botId, int opponentId) {
 		double heuristic = 0;
 		int botConnected, opponentConnected;
-		int[][] macroField = field.getMacroField();
 		// check field positions
 		// middle
 		if (macroField[1][1] == botId) {
@@ -1107,33 +1326,12 @@ public class Evaluation {
 		} else if (opponentConnected > 1 && botConnected == 0) {
 			heuristic -= MACRO_TWO_IN_A_ROW_COMP;
 		}
-		// evaluate micro fields
-		int[][] micro = new int[3][3];
-		heuristic += evaluateMicroMiddleComprehensive(field, micro, botId, opponentId);
-		heuristic += evaluateMicroCornerComprehensive(field, micro, 0, botId, opponentId);
-		heuristic += evaluateMicroCornerComprehensive(field, micro, 2, botId, opponentId);
-		heuristic += evaluateMicroCornerComprehensive(field, micro, 6, botId, opponentId);
-		heuristic += evaluateMicroCornerComprehensive(field, micro, 8, botId, opponentId);
-		heuristic += evaluateMicroSideComprehensive(field, micro, 1, botId, opponentId);
-		heuristic += evaluateMicroSideComprehensive(field, micro, 3, botId, opponentId);
-		heuristic += evaluateMicroSideComprehensive(field, micro, 5, botId, opponentId);
-		heuristic += evaluateMicroSideComprehensive(field, micro, 7, botId, opponentId);
 		return heuristic;
 	}
 	
-	private static double evaluateMicroMiddleComprehensive(Field field, int[][] microField, int botId, int opponentId) {
+	private static double evaluateMicroMiddleComprehensive(int[][] microField, int botId, int opponentId) {
 		double heuristic = 0;
 		int botConnected, opponentConnected;
-		int[][] mField = field.getField();
-		microField[0][0] = mField[3][3];
-		microField[1][0] = mField[4][3];
-		microField[2][0] = mField[5][3];
-		microField[0][1] = mField[3][4];
-		microField[1][1] = mField[4][4];
-		microField[2][1] = mField[5][4];
-		microField[0][2] = mField[3][5];
-		microField[1][2] = mField[4][5];
-		microField[2][2] = mField[5][5];
 		// check field positions
 		// middle
 		if (microField[1][1] == botId) {
@@ -1282,21 +1480,9 @@ public class Evaluation {
 		return heuristic;
 	}
 	
-	private static double evaluateMicroCornerComprehensive(Field field, int[][] microField, int miniIndex, int botId, int opponentId) {
+	private static double evaluateMicroCornerComprehensive(int[][] microField, int botId, int opponentId) {
 		double heuristic = 0;
 		int botConnected, opponentConnected;
-		int topLeftColumn = (miniIndex % 3) * 3;
-		int topLeftRow = (miniIndex / 3) * 3;
-		int[][] mField = field.getField();
-		microField[0][0] = mField[topLeftColumn][topLeftRow];
-		microField[1][0] = mField[topLeftColumn + 1][topLeftRow];
-		microField[2][0] = mField[topLeftColumn + 2][topLeftRow];
-		microField[0][1] = mField[topLeftColumn][topLeftRow + 1];
-		microField[1][1] = mField[topLeftColumn + 1][topLeftRow + 1];
-		microField[2][1] = mField[topLeftColumn + 2][topLeftRow + 1];
-		microField[0][2] = mField[topLeftColumn][topLeftRow + 2];
-		microField[1][2] = mField[topLeftColumn + 1][topLeftRow + 2];
-		microField[2][2] = mField[topLeftColumn + 2][topLeftRow + 2];
 		// check field positions
 		// middle
 		if (microField[1][1] == botId) {
@@ -1445,21 +1631,9 @@ public class Evaluation {
 		return heuristic;
 	}
 	
-	private static double evaluateMicroSideComprehensive(Field field, int[][] microField, int miniIndex, int botId, int opponentId) {
+	private static double evaluateMicroSideComprehensive(int[][] microField, int botId, int opponentId) {
 		double heuristic = 0;
 		int botConnected, opponentConnected;
-		int topLeftColumn = (miniIndex % 3) * 3;
-		int topLeftRow = (miniIndex / 3) * 3;
-		int[][] mField = field.getField();
-		microField[0][0] = mField[topLeftColumn][topLeftRow];
-		microField[1][0] = mField[topLeftColumn + 1][topLeftRow];
-		microField[2][0] = mField[topLeftColumn + 2][topLeftRow];
-		microField[0][1] = mField[topLeftColumn][topLeftRow + 1];
-		microField[1][1] = mField[topLeftColumn + 1][topLeftRow + 1];
-		microField[2][1] = mField[topLeftColumn + 2][topLeftRow + 1];
-		microField[0][2] = mField[topLeftColumn][topLeftRow + 2];
-		microField[1][2] = mField[topLeftColumn + 1][topLeftRow + 2];
-		microField[2][2] = mField[topLeftColumn + 2][topLeftRow + 2];
 		// check field positions
 		// middle
 		if (microField[1][1] == botId) {
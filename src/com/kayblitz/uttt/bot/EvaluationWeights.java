@@ -0,0 +1,214 @@
+package com.kayblitz.uttt.bot;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+import com.kayblitz.uttt.Field;
+import com.kayblitz.uttt.MicroField;
+
+/**
+ * Weights of the linear {@link Evaluation#ADVANCED_OPTIMIZED} and {@link Evaluation#COMPREHENSIVE} evaluations.
+ * Both count four patterns on the macro field and on every micro field: lines of two or three stones of one
+ * player without a stone of the other, and stones on the middle, corner and side cells. Each count is taken for
+ * player 1 minus player 2, so the evaluation is the dot product of the weights with the counts of a position
+ * (see {@link #getFeatures}). The comprehensive evaluation weights the cells of each micro field by the
+ * position of that micro field on the macro field, the advanced optimized evaluation does not.
+ *
+ * Weight files are text, one "NAME value" pair per line after a "type" line, '#' starting a comment.
+ */
+public class EvaluationWeights {
+
+	/** Patterns counted on a 3x3 field, the position patterns are the class of the cell (see {@link #getCellClass}) **/
+	public static final int TWO_IN_A_ROW = 0, MIDDLE = 1, CORNER = 2, SIDE = 3, PATTERNS = 4;
+	/** Index of the first micro field position weight, after the macro weights and the micro two in a row weight **/
+	private static final int MICRO_POSITIONS = PATTERNS + 1;
+
+	private static final String[] ADVANCED_OPTIMIZED_NAMES = { "MACRO_TWO_IN_A_ROW", "MACRO_MIDDLE", "MACRO_CORNER",
+			"MACRO_SIDE", "MICRO_TWO_IN_A_ROW", "MICRO_MIDDLE", "MICRO_CORNER", "MICRO_SIDE" };
+	/** The micro field position weights are named by the class of the micro field, then the class of the cell **/
+	private static final String[] COMPREHENSIVE_NAMES = { "MACRO_TWO_IN_A_ROW", "MACRO_MIDDLE", "MACRO_CORNER",
+			"MACRO_SIDE", "MICRO_TWO_IN_A_ROW", "MICRO_MIDDLE_MIDDLE", "MICRO_MIDDLE_CORNER", "MICRO_MIDDLE_SIDE",
+			"MICRO_CORNER_MIDDLE", "MICRO_CORNER_CORNER", "MICRO_CORNER_SIDE", "MICRO_SIDE_MIDDLE",
+			"MICRO_SIDE_CORNER", "MICRO_SIDE_SIDE" };
+
+	/** Pattern counts of each base 3 state for player 1 minus player 2, indexed [state][pattern] **/
+	private static final byte[][] COUNTS = new byte[MicroField.STATES][PATTERNS];
+
+	static {
+		for (int state = 0; state < MicroField.STATES; state++) {
+			int p1 = MicroField.OCCUPIED[0][state], p2 = MicroField.OCCUPIED[1][state];
+			for (int line : Field.LINES) {
+				if (Integer.bitCount(p1 & line) > 1 && (p2 & line) == 0) {
+					COUNTS[state][TWO_IN_A_ROW]++;
+				} else if (Integer.bitCount(p2 & line) > 1 && (p1 & line) == 0) {
+					COUNTS[state][TWO_IN_A_ROW]--;
+				}
+			}
+			for (int i = 0; i < 9; i++) {
+				if ((p1 & 1 << i) != 0) {
+					COUNTS[state][getCellClass(i)]++;
+				} else if ((p2 & 1 << i) != 0) {
+					COUNTS[state][getCellClass(i)]--;
+				}
+			}
+		}
+	}
+
+	private final int type;
+	private final double[] values;
+
+	/** @param values : the weights in the order of {@link #getNames(int)} **/
+	public EvaluationWeights(int type, double[] values) {
+		if (values.length != getNames(type).length)
+			throw new RuntimeException("Invalid number of evaluation weights");
+		this.type = type;
+		this.values = values.clone();
+	}
+
+	/** Returns the names of the weights of the evaluation type, which are also the features of {@link #getFeatures} **/
+	public static String[] getNames(int type) {
+		if (type == Evaluation.ADVANCED_OPTIMIZED)
+			return ADVANCED_OPTIMIZED_NAMES.clone();
+		if (type == Evaluation.COMPREHENSIVE)
+			return COMPREHENSIVE_NAMES.clone();
+		throw new RuntimeException("Evaluation type has no weights");
+	}
+
+	/** Returns {@link #MIDDLE}, {@link #CORNER} or {@link #SIDE} for a cell or micro field index of a 3x3 field **/
+	public static int getCellClass(int index) {
+		return index == 4 ? MIDDLE : (index % 2 == 0 ? CORNER : SIDE);
+	}
+
+	/**
+	 * Counts the features of the evaluation type on the field for player 1, so that the evaluation of player 1 is
+	 * the dot product of the weights with them
+	 * @param features : receives one count per weight
+	 */
+	public static void getFeatures(Field field, int type, int[] features) {
+		int size = getNames(type).length;
+		Arrays.fill(features, 0, size, 0);
+		byte[] counts = COUNTS[field.getMacroState()];
+		for (int i = 0; i < PATTERNS; i++) {
+			features[i] = counts[i];
+		}
+		for (int i = 0; i < 9; i++) {
+			counts = COUNTS[field.getMicroState(i)];
+			int positions = getMicroPositions(type, i);
+			features[PATTERNS] += counts[TWO_IN_A_ROW];
+			for (int j = MIDDLE; j <= SIDE; j++) {
+				features[positions + j - MIDDLE] += counts[j];
+			}
+		}
+	}
+
+	/** Returns the index of the middle cell weight of the micro field, followed by the corner and side weights **/
+	private static int getMicroPositions(int type, int macroIndex) {
+		return type == Evaluation.COMPREHENSIVE ? MICRO_POSITIONS + (getCellClass(macroIndex) - MIDDLE) * 3
+				: MICRO_POSITIONS;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public double[] getValues() {
+		return values.clone();
+	}
+
+	/** Returns the macro field part of the evaluation for player 1, indexed by the macro state **/
+	public double[] getMacroTable() {
+		double[] table = new double[MicroField.STATES];
+		for (int state = 0; state < MicroField.STATES; state++) {
+			for (int i = 0; i < PATTERNS; i++) {
+				table[state] += values[i] * COUNTS[state][i];
+			}
+		}
+		return table;
+	}
+
+	/** Returns the part of the evaluation for player 1 of the micro field at the index, indexed by its state **/
+	public double[] getMicroTable(int macroIndex) {
+		double[] table = new double[MicroField.STATES];
+		int positions = getMicroPositions(type, macroIndex);
+		for (int state = 0; state < MicroField.STATES; state++) {
+			table[state] = values[PATTERNS] * COUNTS[state][TWO_IN_A_ROW];
+			for (int i = MIDDLE; i <= SIDE; i++) {
+				table[state] += values[positions + i - MIDDLE] * COUNTS[state][i];
+			}
+		}
+		return table;
+	}
+
+	/** Reads a weight file written by {@link #save(String, String)}, every weight of its type must be given **/
+	public static EvaluationWeights load(String path) {
+		try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+			int type = -1;
+			String[] names = null;
+			double[] values = null;
+			boolean[] read = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int comment = line.indexOf('#');
+				String[] tokens = (comment >= 0 ? line.substring(0, comment) : line).trim().split("\\s+");
+				if (tokens[0].isEmpty())
+					continue;
+				if (tokens.length != 2)
+					throw new RuntimeException("Invalid weight line: " + line);
+				if (tokens[0].equals("type")) {
+					type = Integer.parseInt(tokens[1]);
+					names = getNames(type);
+					values = new double[names.length];
+					read = new boolean[names.length];
+					continue;
+				}
+				if (names == null)
+					throw new RuntimeException("Weight file must start with the evaluation type");
+				int i = Arrays.asList(names).indexOf(tokens[0]);
+				if (i < 0)
+					throw new RuntimeException("Unknown weight: " + tokens[0]);
+				values[i] = Double.parseDouble(tokens[1]);
+				read[i] = true;
+			}
+			if (names == null)
+				throw new RuntimeException("Weight file must start with the evaluation type");
+			for (int i = 0; i < names.length; i++) {
+				if (!read[i])
+					throw new RuntimeException("Missing weight: " + names[i]);
+			}
+			return new EvaluationWeights(type, values);
+		} catch (IOException | NumberFormatException e) {
+			throw new RuntimeException("Could not read evaluation weights from " + path, e);
+		}
+	}
+
+	/** Writes the weights with a comment line, values are written exactly **/
+	public void save(String path, String comment) {
+		try (PrintWriter writer = new PrintWriter(new FileWriter(path))) {
+			if (comment != null)
+				writer.println("# " + comment);
+			writer.println("type " + type);
+			String[] names = getNames(type);
+			for (int i = 0; i < names.length; i++) {
+				writer.println(names[i] + " " + values[i]);
+			}
+			if (writer.checkError())
+				throw new IOException("Write failed");
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write evaluation weights to " + path, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		String[] names = getNames(type);
+		for (int i = 0; i < names.length; i++) {
+			sb.append(String.format("%s %.4f\n", names[i], values[i]));
+		}
+		return sb.toString();
+	}
+}
@@ -1,12 +1,14 @@
 package com.kayblitz.uttt.bot;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 import com.kayblitz.uttt.Bot;
 import com.kayblitz.uttt.BotParser;
+import com.kayblitz.uttt.EvaluationCache;
 import com.kayblitz.uttt.Field;
-import com.kayblitz.uttt.Move;
+import com.kayblitz.uttt.FieldAccumulator;
+import com.kayblitz.uttt.MicroField;
 
 public class IterativeDeepeningMinimaxBot extends Bot {
 
@@ -16,13 +18,24 @@ public class IterativeDeepeningMinimaxBot extends Bot {
 			return;
 		}
 		int type = -1;
+		EvaluationCache cache = null;
 		try {
 			type = Integer.parseInt(args[0]);
+			// optional evaluation cache size in MB, 0 for none
+			if (args.length > 1 && Long.parseLong(args[1]) > 0)
+				cache = new EvaluationCache(Long.parseLong(args[1]) << 20);
+			// optional weight file of the weighted evaluations, see EvaluationFitter
+			if (args.length > 2)
+				Evaluation.setWeights(EvaluationWeights.load(args[2]));
 		} catch (NumberFormatException e) {
-			System.err.println("Invalid evaluation type");
+			System.err.println("Invalid evaluation type or cache size");
 			return;
 		}
-		new BotParser(new IterativeDeepeningMinimaxBot(type)).run();
+		if (type == Evaluation.NETWORK && !Evaluation.hasNetwork()) {
+			System.err.println("Evaluation type " + type + " needs network weights in " + Evaluation.NETWORK_FILE);
+			return;
+		}
+		new BotParser(new IterativeDeepeningMinimaxBot(type, cache)).run();
 	}
 	
 	private static final int MAX_DEPTH = 20;
@@ -30,10 +43,69 @@ public class IterativeDeepeningMinimaxBot extends Bot {
 	private long startTime, limit;
 	private boolean timedOut;
 	private Random rand;
+	/** One reusable move buffer per remaining depth so the search does not allocate **/
+	private int[][] moveBuffers;
+	/** Scratch buffers of {@link #orderMoves} **/
+	private int[] orderedMoves, moveRanks, rankCounts;
+	private int[] rootMoves;
+	/** Leaf evaluations kept across depths and moves, null if not used **/
+	private EvaluationCache cache;
+	/** Tables of the evaluation, null for the network **/
+	private TableEvaluation evaluation;
+	/**
+	 * State of the evaluation leaves are read from without a cache, maintained by the field on every move. Set on
+	 * the field when a search starts, since the field may have been replaced, for example by a game played offline.
+	 */
+	private FieldAccumulator accumulator;
+	/** Network the cache was filled with, its values are dropped when another one is set **/
+	private ValueNetwork cachedNetwork;
 	
 	public IterativeDeepeningMinimaxBot(int type) {
+		this(type, null);
+	}
+	
+	/** Evaluates with the evaluation type, taking up weights set with {@link Evaluation#setWeights} on the next move **/
+	public IterativeDeepeningMinimaxBot(int type, EvaluationCache cache) {
+		this(type, type == Evaluation.NETWORK ? null : Evaluation.getTableEvaluation(type), cache);
+	}
+	
+	/** Evaluates with the compiled evaluation, for example weights being tried, until another one is set **/
+	public IterativeDeepeningMinimaxBot(TableEvaluation evaluation, EvaluationCache cache) {
+		this(-1, evaluation, cache);
+	}
+	
+	private IterativeDeepeningMinimaxBot(int type, TableEvaluation evaluation, EvaluationCache cache) {
 		this.type = type;
+		this.cache = cache;
+		if (evaluation != null) {
+			useEvaluation(evaluation);
+		} else if (cache == null) {
+			accumulator = Evaluation.getNetwork().newAccumulator();
+		}
 		rand = new Random(System.currentTimeMillis());
+		moveBuffers = new int[MAX_DEPTH][Field.COLS * Field.ROWS];
+		rootMoves = new int[Field.COLS * Field.ROWS];
+		orderedMoves = new int[Field.COLS * Field.ROWS];
+		moveRanks = new int[Field.COLS * Field.ROWS];
+		rankCounts = new int[3 * 3 + 1];
+	}
+	
+	/** Evaluates with the compiled evaluation from the next move on, instead of the evaluation type **/
+	public void setEvaluation(TableEvaluation evaluation) {
+		type = -1;
+		useEvaluation(evaluation);
+	}
+	
+	private void useEvaluation(TableEvaluation evaluation) {
+		if (evaluation == this.evaluation)
+			return;
+		this.evaluation = evaluation;
+		// without a cache, leaves are evaluated by reading the evaluation the field maintains on every move
+		if (cache == null) {
+			accumulator = evaluation.newAccumulator();
+		} else {
+			cache.clear(); // values of the previous evaluation
+		}
 	}
 	
 	public long getElapsedTime() {
@@ -41,29 +113,31 @@ public class IterativeDeepeningMinimaxBot extends Bot {
 	}
 
 	@Override
-	public Move makeMove(int timebank) {
+	public int makeMove(int timebank) {
 		// this function acts as the bot's first maximizing node
 		startTime = System.currentTimeMillis();
+		if (type >= 0 && type != Evaluation.NETWORK)
+			useEvaluation(Evaluation.getTableEvaluation(type));
+		if (type == Evaluation.NETWORK && cache != null && Evaluation.getNetwork() != cachedNetwork) {
+			cache.clear(); // values of the previous network
+			cachedNetwork = Evaluation.getNetwork();
+		}
+		if (accumulator != null && field.getAccumulator() != accumulator)
+			field.setAccumulator(accumulator);
 		if (field.getMoveNum() == 1)
-			return new Move(4, 4); // best first move
+			return Field.getMoveIndex(4, 4); // best first move
 		
-		ArrayList<Move> moves = field.getAvailableMoves();
+		int[] moves = Arrays.copyOf(rootMoves, field.getAvailableMoves(rootMoves));
 		// check to see if we can end the game now
-		for (Move move : moves) {
-			field.makeMove(move, botId, true);
-			if (field.getWinner() > 0) {
-				field.pop();
-				return move; // win the game
-			} else {
-				field.undo();
-			}
-		}
+		int winningMove = field.getWinningMove(botId);
+		if (winningMove >= 0)
+			return winningMove; // win the game
 		
 		if (field.getMoveNum() < 15) {
 			// heuristics mostly the same (insignificant), dont waste timebank
 			limit = 500L;
 		} else {
-			int size = moves.size();
+			int size = moves.length;
 			if (size < 4) {
 				limit = 500L;
 			} else if (size < 7) {
@@ -80,10 +154,10 @@ public class IterativeDeepeningMinimaxBot extends Bot {
 		
 		// best values from a completely finished depth
 		double bestHeuristic = Integer.MIN_VALUE;
-		Move bestMove = null;
+		int bestMove = -1;
 		// tentative values from the current depth exploration
 		double tentativeBestHeuristic = Integer.MIN_VALUE;
-		Move tentativeBestMove = null;
+		int tentativeBestMove = -1;
 		
 		timedOut = false;
 		StringBuffer sb = new StringBuffer();
@@ -92,9 +166,9 @@ public class IterativeDeepeningMinimaxBot extends Bot {
 		
 		for (int depth = 1; !timedOut && depth <= MAX_DEPTH; depth++) {
 			tentativeBestHeuristic = Integer.MIN_VALUE;
-			tentativeBestMove = null;
+			tentativeBestMove = -1;
 			sb.append("Depth " + depth + '\n');
-			for (Move move : moves) {
+			for (int move : moves) {
 				field.makeMove(move, botId, true);
 				double heuristic = minimax(field, Integer.MIN_VALUE, Integer.MAX_VALUE, opponentId, depth - 1);
 				field.undo();
@@ -108,7 +182,7 @@ public class IterativeDeepeningMinimaxBot extends Bot {
 					if (rand.nextInt(2) == 0)
 						tentativeBestMove = move;
 				}
-				sb.append(String.format("%d,%d : %.2f\n", move.column, move.row, heuristic));
+				sb.append(String.format("%d,%d : %.2f\n", move % Field.COLS, move / Field.COLS, heuristic));
 			}
 			if (timedOut) {
 				sb.append("Timed out\n");
@@ -120,23 +194,16 @@ public class IterativeDeepeningMinimaxBot extends Bot {
 			}
 		}
 		sb.append("Nodes visited " + nodesVisited + '\n');
-		System.err.println(sb.toString());
+		if (cache != null) {
+			sb.append(cache.toString() + '\n');
+			cache.clearCurrentLog();
+		}
+		log(sb.toString());
 		
 		if (Double.compare(bestHeuristic, -Evaluation.WIN) == 0) { // going to lose, delay it
-			for (Move move : moves) {
+			for (int move : moves) {
 				field.makeMove(move, botId, true);
-				ArrayList<Move> opponentMoves = field.getAvailableMoves();
-				boolean opponentWins = false;
-				for (Move opponentMove : opponentMoves) {
-					field.makeMove(opponentMove, opponentId, true);
-					if (field.getWinner() > 0) {
-						field.undo();
-						opponentWins = true;
-						break;
-					} else {
-						field.undo();
-					}
-				}
+				boolean opponentWins = field.getWinningMove(opponentId) >= 0;
 				field.undo();
 				if (!opponentWins)
 					return move;
@@ -154,40 +221,49 @@ public class IterativeDeepeningMinimaxBot extends Bot {
 		}
 		// the previous move maker won, so if the current maximizingPlayer is us
 		// then our opponent made the winning move, so we lost
-		int winner = field.getWinner();
+		int winner = field.getDecidedWinner();
 		if (winner == 0)
 			return Evaluation.TIE;
 		if (winner > 0)
 			return (maximizingPlayer == botId ? -Evaluation.WIN : Evaluation.WIN);
-		if (depth == 0) {
-			switch (type) {
-			case Evaluation.SIMPLE:
-				return Evaluation.evaluateFieldSimple(field, botId, opponentId);
-			case Evaluation.CONNECTING:
-				return Evaluation.evaluateFieldConnecting(field, botId, opponentId);
-			case Evaluation.ADVANCED:
-				return Evaluation.evaluateFieldAdvanced(field, botId, opponentId);
-			case Evaluation.ADVANCED_OPTIMIZED:
-				return Evaluation.evaluateFieldAdvancedOptimized(field, botId, opponentId);
-			case Evaluation.COMPREHENSIVE:
-				return Evaluation.evaluateFieldComprehensive(field, botId, opponentId);
-			default:
-				throw new RuntimeException("Invalid heuristic evaluation function");
+		if (depth == 0)
+			return evaluate(field);
+		
+		// the player to move wins right away, no need to search the other moves
+		if (field.getWinningMove(maximizingPlayer) >= 0)
+			return (maximizingPlayer == botId ? Evaluation.WIN : -Evaluation.WIN);
+		
+		// one move before the horizon the children are evaluated positions, or ties. No child can differ from
+		// this position by more than the gain of one move, so when that cannot reach into the window every
+		// child would fail the same way and they do not need to be made.
+		if (depth == 1 && evaluation != null) {
+			if (maximizingPlayer == botId) {
+				if (alpha > Integer.MIN_VALUE && Double.compare(evaluate(field)
+						+ evaluation.getMaxMoveGain(field, maximizingPlayer), alpha) <= 0
+						&& (Evaluation.TIE <= alpha || !field.canMoveDecideTie()))
+					return alpha;
+			} else if (beta < Integer.MAX_VALUE && Double.compare(evaluate(field)
+					- evaluation.getMaxMoveGain(field, maximizingPlayer), beta) >= 0
+					&& (Evaluation.TIE >= beta || !field.canMoveDecideTie())) {
+				return beta;
 			}
 		}
 		
-		ArrayList<Move> moves = field.getAvailableMoves();
+		int[] moves = moveBuffers[depth];
+		int numAvailable = field.getAvailableMoves(moves);
+		if (depth > 1) // the children of depth 1 are only evaluated
+			orderMoves(field, maximizingPlayer, moves, numAvailable);
 		if (maximizingPlayer == botId) {
-			for (Move move : moves) {
-				field.makeMove(move, maximizingPlayer, true);
+			for (int i = 0; i < numAvailable; i++) {
+				field.makeMove(moves[i], maximizingPlayer, true);
 				double heuristic = minimax(field, alpha, beta, maximizingPlayer == 1 ? 2 : 1, depth - 1);
 				field.undo();
 				alpha = Math.max(alpha, heuristic);
 				if (Double.compare(beta, alpha) <= 0) return alpha;
 			}
 		} else { // opponent
-			for (Move move : moves) {
-				field.makeMove(move, maximizingPlayer, true);
+			for (int i = 0; i < numAvailable; i++) {
+				field.makeMove(moves[i], maximizingPlayer, true);
 				double heuristic = minimax(field, alpha, beta, maximizingPlayer == 1 ? 2 : 1, depth - 1);
 				field.undo();
 				beta = Math.min(beta, heuristic);
@@ -196,4 +272,46 @@ public class IterativeDeepeningMinimaxBot extends Bot {
 		}
 		return maximizingPlayer == botId ? alpha : beta;
 	}
+	
+	/**
+	 * Sorts the moves of the player so the likely best are searched first and cut off the others sooner. Moves
+	 * are ranked by the micro field they send the opponent to, then by the micro field they are made in, from the
+	 * tablebase of MicroField: a field the player can force the win of with the opponent to move first, a forced
+	 * tie, then a forced loss. Sending the opponent to a finished micro field gives a free move, ranked as a
+	 * loss. The tablebase only knows each micro field on its own, so this is only an order: every move is still
+	 * searched, and the values do not depend on it.
+	 */
+	private void orderMoves(Field field, int id, int[] moves, int numMoves) {
+		int opponent = id == 1 ? 2 : 1;
+		Arrays.fill(rankCounts, 0);
+		for (int i = 0; i < numMoves; i++) {
+			int macro = Field.getMacroIndex(moves[i]), bit = Field.getBitIndex(moves[i]);
+			int state = field.getMicroState(macro) + id * MicroField.POW3[bit];
+			// the position of the move in its micro field is the micro field the opponent is sent to
+			int target = bit == macro ? state : field.getMicroState(bit);
+			int sent = MicroField.RESULT[target] >= 0 ? 2 : getRank(MicroField.getOutcome(target, opponent), id);
+			moveRanks[i] = sent * 3 + getRank(MicroField.getOutcome(state, opponent), id);
+			rankCounts[moveRanks[i] + 1]++;
+		}
+		for (int i = 1; i < rankCounts.length; i++) {
+			rankCounts[i] += rankCounts[i - 1];
+		}
+		// counting sort, stable so equal moves keep the order of getAvailableMoves
+		for (int i = 0; i < numMoves; i++) {
+			orderedMoves[rankCounts[moveRanks[i]]++] = moves[i];
+		}
+		System.arraycopy(orderedMoves, 0, moves, 0, numMoves);
+	}
+	
+	/** Returns 0 for an outcome won by the player, 1 for a tie and 2 for a loss **/
+	private static int getRank(int outcome, int id) {
+		return outcome == id ? 0 : (outcome == 0 ? 1 : 2);
+	}
+	
+	private double evaluate(Field field) {
+		if (cache != null)
+			return evaluation != null ? evaluation.evaluate(field, botId, cache)
+					: Evaluation.evaluateField(field, type, botId, cache);
+		return Evaluation.evaluateFieldIncremental(field, botId);
+	}
 }
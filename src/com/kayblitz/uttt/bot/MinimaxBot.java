@@ -1,12 +1,13 @@
 package com.kayblitz.uttt.bot;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Random;
 
 import com.kayblitz.uttt.Bot;
 import com.kayblitz.uttt.BotParser;
+import com.kayblitz.uttt.EvaluationCache;
 import com.kayblitz.uttt.Field;
-import com.kayblitz.uttt.Move;
+import com.kayblitz.uttt.FieldAccumulator;
 
 public class MinimaxBot extends Bot {
 
@@ -17,37 +18,82 @@ public class MinimaxBot extends Bot {
 		}
 		int depth = -1;
 		int type = -1;
+		EvaluationCache cache = null;
 		try {
 			depth = Integer.parseInt(args[0]);
 			type = Integer.parseInt(args[1]);
+			// optional evaluation cache size in MB, 0 for none
+			if (args.length > 2 && Long.parseLong(args[2]) > 0)
+				cache = new EvaluationCache(Long.parseLong(args[2]) << 20);
+			// optional weight file of the weighted evaluations, see EvaluationFitter
+			if (args.length > 3)
+				Evaluation.setWeights(EvaluationWeights.load(args[3]));
 		} catch (NumberFormatException e) {
-			System.err.println("Invalid depth or evaluation type");
+			System.err.println("Invalid depth, evaluation type or cache size");
 			return;
 		}
-		new BotParser(new MinimaxBot(depth, type)).run();
+		if (type == Evaluation.NETWORK && !Evaluation.hasNetwork()) {
+			System.err.println("Evaluation type " + type + " needs network weights in " + Evaluation.NETWORK_FILE);
+			return;
+		}
+		new BotParser(new MinimaxBot(depth, type, cache)).run();
 	}
 	
 	private int depth, type;
+	/**
+	 * Network state leaves are read from, maintained by the field on every move, or null to evaluate in full. Set on
+	 * the field when a search starts, since the field may have been replaced, for example by a game played offline.
+	 */
+	private FieldAccumulator accumulator;
 	private Random rand;
+	/** Leaf evaluations kept across moves, null if not used **/
+	private EvaluationCache cache;
+	/** Tables or network the cache was filled with, its values are dropped when they are replaced **/
+	private Object cachedEvaluation;
+	/** Tables of the evaluation when one was given, otherwise the evaluation type is used **/
+	private TableEvaluation evaluation;
+	/** One reusable move buffer per remaining depth so the search does not allocate **/
+	private int[][] moveBuffers;
+	private int[] rootMoves;
 	
 	public MinimaxBot(int depth, int type) {
+		this(depth, type, null);
+	}
+	
+	public MinimaxBot(int depth, int type, EvaluationCache cache) {
 		this.depth = depth;
 		this.type = type;
+		this.cache = cache;
+		// without a cache, the network is updated by every move of the search rather than evaluated in full
+		if (type == Evaluation.NETWORK && cache == null)
+			accumulator = Evaluation.getNetwork().newAccumulator();
 		rand = new Random(System.currentTimeMillis());
+		moveBuffers = new int[Math.max(depth, 1)][Field.COLS * Field.ROWS];
+		rootMoves = new int[Field.COLS * Field.ROWS];
 	}
 
+	/** Evaluates with the compiled evaluation, for example weights being tried **/
+	public MinimaxBot(int depth, TableEvaluation evaluation, EvaluationCache cache) {
+		this(depth, -1, cache);
+		this.evaluation = evaluation;
+	}
+	
 	@Override
-	public Move makeMove(int timebank) {		
-		System.err.println("Timebank: " + timebank);
+	public int makeMove(int timebank) {		
+		log("Timebank: " + timebank);
+		if (cache != null)
+			checkCache();
+		if (accumulator != null && field.getAccumulator() != accumulator)
+			field.setAccumulator(accumulator);
 		if (field.getMoveNum() == 1)
-			return new Move(4, 4); // best first move
+			return Field.getMoveIndex(4, 4); // best first move
 		double bestHeuristic = Integer.MIN_VALUE;
-		Move bestMove = null;
+		int bestMove = -1;
 		
 		// this function acts as the bot's first maximizing node
-		ArrayList<Move> moves = field.getAvailableMoves();
+		int[] moves = Arrays.copyOf(rootMoves, field.getAvailableMoves(rootMoves));
 		StringBuffer sb = new StringBuffer();
-		for (Move move : moves) {
+		for (int move : moves) {
 			field.makeMove(move, botId, true);
 			double heuristic = minimax(field, Integer.MIN_VALUE, Integer.MAX_VALUE, opponentId, depth - 1);
 			field.undo();
@@ -59,35 +105,22 @@ public class MinimaxBot extends Bot {
 				if (rand.nextInt(2) == 0)
 					bestMove = move;
 			}
-			sb.append(String.format("%d,%d : %.2f\n", move.column, move.row, heuristic));
+			sb.append(String.format("%d,%d : %.2f\n", move % Field.COLS, move / Field.COLS, heuristic));
+		}
+		if (cache != null) {
+			sb.append(cache.toString() + '\n');
+			cache.clearCurrentLog();
 		}
-		System.err.println(sb.toString());
+		log(sb.toString());
 		
 		if (Double.compare(bestHeuristic, Evaluation.WIN) == 0) { // check to see if we can end the game now
-			for (Move move : moves) {
-				field.makeMove(move, botId, true);
-				if (field.getWinner() > 0) {
-					field.undo();
-					return move; // win the game
-				} else {
-					field.undo();
-				}
-			}
+			int winningMove = field.getWinningMove(botId);
+			if (winningMove >= 0)
+				return winningMove; // win the game
 		} else if (Double.compare(bestHeuristic, -Evaluation.WIN) == 0) { // going to lose, delay it
-			for (Move move : moves) {
+			for (int move : moves) {
 				field.makeMove(move, botId, true);
-				ArrayList<Move> opponentMoves = field.getAvailableMoves();
-				boolean opponentWins = false;
-				for (Move opponentMove : opponentMoves) {
-					field.makeMove(opponentMove, opponentId, true);
-					if (field.getWinner() > 0) {
-						field.undo();
-						opponentWins = true;
-						break;
-					} else {
-						field.undo();
-					}
-				}
+				boolean opponentWins = field.getWinningMove(opponentId) >= 0;
 				field.undo();
 				if (!opponentWins)
 					return move;
@@ -100,38 +133,29 @@ public class MinimaxBot extends Bot {
 	public double minimax(Field field, double alpha, double beta, int maximizingPlayer, int depth) {
 		// the previous move maker won, so if the current maximizingPlayer is us
 		// then our opponent made the winning move, so we lost
-		int winner = field.getWinner();
+		int winner = field.getDecidedWinner();
 		if (winner == 0) return Evaluation.TIE;
 		if (winner > 0) return (maximizingPlayer == botId ? -Evaluation.WIN : Evaluation.WIN);
-		if (depth == 0) {
-			switch (type) {
-			case Evaluation.SIMPLE:
-				return Evaluation.evaluateFieldSimple(field, botId, opponentId);
-			case Evaluation.CONNECTING:
-				return Evaluation.evaluateFieldConnecting(field, botId, opponentId);
-			case Evaluation.ADVANCED:
-				return Evaluation.evaluateFieldAdvanced(field, botId, opponentId);
-			case Evaluation.ADVANCED_OPTIMIZED:
-				return Evaluation.evaluateFieldAdvancedOptimized(field, botId, opponentId);
-			case Evaluation.COMPREHENSIVE:
-				return Evaluation.evaluateFieldComprehensive(field, botId, opponentId);
-			default:
-				throw new RuntimeException("Invalid heuristic evaluation function");
-			}
-		}
+		if (depth == 0)
+			return evaluate(field);
 		
-		ArrayList<Move> moves = field.getAvailableMoves();
+		// the player to move wins right away, no need to search the other moves
+		if (field.getWinningMove(maximizingPlayer) >= 0)
+			return (maximizingPlayer == botId ? Evaluation.WIN : -Evaluation.WIN);
+		
+		int[] moves = moveBuffers[depth];
+		int numAvailable = field.getAvailableMoves(moves);
 		if (maximizingPlayer == botId) {
-			for (Move move : moves) {
-				field.makeMove(move, maximizingPlayer, true);
+			for (int i = 0; i < numAvailable; i++) {
+				field.makeMove(moves[i], maximizingPlayer, true);
 				double heuristic = minimax(field, alpha, beta, maximizingPlayer == 1 ? 2 : 1, depth - 1);
 				field.undo();
 				alpha = Math.max(alpha, heuristic);
 				if (Double.compare(beta, alpha) <= 0) return alpha;
 			}
 		} else { // opponent
-			for (Move move : moves) {
-				field.makeMove(move, maximizingPlayer, true);
+			for (int i = 0; i < numAvailable; i++) {
+				field.makeMove(moves[i], maximizingPlayer, true);
 				double heuristic = minimax(field, alpha, beta, maximizingPlayer == 1 ? 2 : 1, depth - 1);
 				field.undo();
 				beta = Math.min(beta, heuristic);
@@ -140,4 +164,21 @@ public class MinimaxBot extends Bot {
 		}
 		return maximizingPlayer == botId ? alpha : beta;
 	}
+	
+	/** Clears the cache if the evaluation changed since the last move, for example by setWeights or setNetwork **/
+	private void checkCache() {
+		Object current = evaluation != null ? evaluation : type == Evaluation.NETWORK ? Evaluation.getNetwork()
+				: Evaluation.getTableEvaluation(type);
+		if (current != cachedEvaluation) {
+			cache.clear();
+			cachedEvaluation = current;
+		}
+	}
+	
+	private double evaluate(Field field) {
+		if (accumulator != null)
+			return Evaluation.evaluateFieldIncremental(field, botId);
+		return evaluation != null ? evaluation.evaluate(field, botId, cache)
+				: Evaluation.evaluateField(field, type, botId, cache);
+	}
 }
@@ -16,12 +16,11 @@
 //    file that was distributed with this source code.
 
 package com.kayblitz.uttt.bot;
-import java.util.ArrayList;
 import java.util.Random;
 
 import com.kayblitz.uttt.Bot;
 import com.kayblitz.uttt.BotParser;
-import com.kayblitz.uttt.Move;
+import com.kayblitz.uttt.Field;
 
 /**
  * BotStarter class
@@ -35,9 +34,11 @@ import com.kayblitz.uttt.Move;
 public class RandomBot extends Bot {
 	
 	private Random random;
+	private int[] moves;
 	
 	public RandomBot() {
 		random = new Random(System.currentTimeMillis());
+		moves = new int[Field.COLS * Field.ROWS];
 	}
 
     /**
@@ -47,9 +48,9 @@ public class RandomBot extends Bot {
      * @return The column where the turn was made.
      */
 	@Override
-	public Move makeMove(int timebank) {
-		ArrayList<Move> moves = field.getAvailableMoves();
-		Move move = moves.get(random.nextInt(moves.size())); /* get random move from available moves */
+	public int makeMove(int timebank) {
+		int numAvailable = field.getAvailableMoves(moves);
+		int move = moves[random.nextInt(numAvailable)]; /* get random move from available moves */
 		return move;
 	}
 	
@@ -0,0 +1,242 @@
+package com.kayblitz.uttt.bot;
+
+import java.util.Arrays;
+
+import com.kayblitz.uttt.EvaluationCache;
+import com.kayblitz.uttt.Field;
+import com.kayblitz.uttt.FieldAccumulator;
+import com.kayblitz.uttt.MicroField;
+
+/**
+ * An evaluation compiled into tables indexed by the base 3 state of the macro field and of each micro field (see
+ * MicroField), holding the value for player 1. Whatever the weights or terms it was built from, evaluating costs
+ * the same ten lookups, and a make or undo only swaps the entries of the changed micro field. Player 2 gets the
+ * negated value. Instances are immutable, so an evaluation can be replaced by compiling new weights while
+ * searches keep using the one they started with.
+ */
+public class TableEvaluation {
+
+	/** Fixed point scale of the tables of the incremental evaluation and of the child evaluations **/
+	private static final int INCREMENTAL_BITS = 32;
+	public static final double INCREMENTAL_SCALE = 1L << INCREMENTAL_BITS;
+	private static final int[] NATURAL_ORDER = { 0, 1, 2, 3, 4, 5, 6, 7, 8 };
+
+	private final double[] macroTable;
+	/** Indexed [microIndex][state], micro fields may share a table **/
+	private final double[][] microTables;
+	/** Order in which {@link #evaluate(Field)} adds the micro fields **/
+	private final int[] order;
+	/** Fixed point copies of the tables for {@link TableAccumulator} and {@link #evaluateChildren} **/
+	private final long[] fixedMacroTable;
+	private final long[][] fixedMicroTables;
+	/**
+	 * Largest change of the fixed point micro entry in favour of the player adding a stone to each open micro
+	 * field state, for {@link #getMaxMoveGain}. Indexed [microIndex][id - 1][state], shared where the tables are.
+	 */
+	private final long[][][] moveGains;
+	/** Weights the tables were compiled from, null for the hand written evaluations **/
+	private final EvaluationWeights weights;
+
+	/**
+	 * @param microTables : table of each micro field, micro fields may share a table
+	 * @param order : order in which {@link #evaluate(Field)} adds the micro fields
+	 * @param weights : weights the tables were built from, or null
+	 */
+	TableEvaluation(double[] macroTable, double[][] microTables, int[] order, EvaluationWeights weights) {
+		this.macroTable = macroTable;
+		this.microTables = microTables;
+		this.order = order;
+		this.weights = weights;
+		fixedMacroTable = toFixedPoint(macroTable);
+		fixedMicroTables = new long[9][];
+		moveGains = new long[9][][];
+		for (int i = 0; i < 9; i++) {
+			for (int j = 0; j < i && fixedMicroTables[i] == null; j++) {
+				if (microTables[j] == microTables[i]) {
+					fixedMicroTables[i] = fixedMicroTables[j];
+					moveGains[i] = moveGains[j];
+				}
+			}
+			if (fixedMicroTables[i] == null) {
+				fixedMicroTables[i] = toFixedPoint(microTables[i]);
+				moveGains[i] = getMoveGains(fixedMicroTables[i]);
+			}
+		}
+	}
+
+	/**
+	 * Compiles the weights into tables, so the evaluation runs as fast as the built in ones. Used to try weights
+	 * read from a file without rebuilding, see {@link Evaluation#setWeights} to replace a built in evaluation.
+	 */
+	public static TableEvaluation compile(EvaluationWeights weights) {
+		double[][] microTables = new double[9][];
+		for (int i = 0; i < 9; i++) {
+			for (int j = 0; j < i && microTables[i] == null; j++) {
+				if (EvaluationWeights.getCellClass(j) == EvaluationWeights.getCellClass(i)
+						|| weights.getType() != Evaluation.COMPREHENSIVE)
+					microTables[i] = microTables[j];
+			}
+			if (microTables[i] == null)
+				microTables[i] = weights.getMicroTable(i);
+		}
+		return new TableEvaluation(weights.getMacroTable(), microTables, NATURAL_ORDER, weights);
+	}
+
+	/** Returns the tables of an evaluation with the same table for every micro field **/
+	static TableEvaluation of(double[] macroTable, double[] microTable, EvaluationWeights weights) {
+		double[][] microTables = new double[9][];
+		Arrays.fill(microTables, microTable);
+		return new TableEvaluation(macroTable, microTables, NATURAL_ORDER, weights);
+	}
+
+	/** Returns the largest change of the table entry in favour of each player adding a stone, indexed [id - 1][state] **/
+	private static long[][] getMoveGains(long[] table) {
+		long[][] gains = new long[2][MicroField.STATES];
+		for (int state = 0; state < MicroField.STATES; state++) {
+			gains[0][state] = Long.MIN_VALUE;
+			gains[1][state] = Long.MIN_VALUE;
+			if (MicroField.RESULT[state] != -1)
+				continue;
+			int empty = ~(MicroField.OCCUPIED[0][state] | MicroField.OCCUPIED[1][state]) & Field.FULL;
+			for (; empty != 0; empty &= empty - 1) {
+				int pow = MicroField.POW3[Integer.numberOfTrailingZeros(empty)];
+				gains[0][state] = Math.max(gains[0][state], table[state + pow] - table[state]);
+				gains[1][state] = Math.max(gains[1][state], table[state] - table[state + 2 * pow]);
+			}
+		}
+		return gains;
+	}
+
+	private static long[] toFixedPoint(double[] table) {
+		long[] fixed = new long[table.length];
+		for (int i = 0; i < table.length; i++) {
+			fixed[i] = Math.round(table[i] * INCREMENTAL_SCALE);
+		}
+		return fixed;
+	}
+
+	/** Returns the weights the evaluation was compiled from, or null for a built in evaluation **/
+	public EvaluationWeights getWeights() {
+		return weights;
+	}
+
+	/** Returns the value of the field for player 1 **/
+	public double evaluate(Field field) {
+		double heuristic = macroTable[field.getMacroState()];
+		for (int i : order) {
+			heuristic += microTables[i][field.getMicroState(i)];
+		}
+		return heuristic;
+	}
+
+	/**
+	 * Returns the value of the field for the bot. With a cache, the value is looked up by the hash of the
+	 * position first and stored for player 1 after evaluating, so a cache must only be used for one evaluation.
+	 * @param cache : cache of earlier evaluations, or null to always evaluate
+	 */
+	public double evaluate(Field field, int botId, EvaluationCache cache) {
+		double heuristic;
+		if (cache != null) {
+			heuristic = cache.probe(field.getHash());
+			if (!Double.isNaN(heuristic))
+				return Evaluation.forBot(heuristic, botId);
+		}
+		heuristic = evaluate(field);
+		if (cache != null)
+			cache.store(field.getHash(), heuristic);
+		return Evaluation.forBot(heuristic, botId);
+	}
+
+	/**
+	 * Returns an accumulator maintaining the evaluation of a field on every make and undo, to set with
+	 * {@link Field#setAccumulator(FieldAccumulator)}. Equal to {@link #evaluate(Field)} up to the fixed point
+	 * rounding of the tables.
+	 */
+	public FieldAccumulator newAccumulator() {
+		return new TableAccumulator();
+	}
+
+	/**
+	 * Returns an upper bound of how much the next move of the player can change the evaluation in favour of that
+	 * player, so the positions after the move can be bounded without making it. Takes the largest micro entry
+	 * change of each playable micro field, plus the macro entry change where the player threatens to win that
+	 * micro field. A small margin covers the rounding of the double evaluation against the fixed point tables.
+	 */
+	public double getMaxMoveGain(Field field, int id) {
+		int macroState = field.getMacroState();
+		long gain = Long.MIN_VALUE;
+		for (int fields = field.getPlayable(); fields != 0; fields &= fields - 1) {
+			int macro = Integer.numberOfTrailingZeros(fields);
+			long fieldGain = moveGains[macro][id - 1][field.getMicroState(macro)];
+			if (field.getMicroThreats(id, macro) != 0) {
+				long macroGain = fixedMacroTable[macroState + id * MicroField.POW3[macro]]
+						- fixedMacroTable[macroState];
+				fieldGain += Math.max(0, id == 1 ? macroGain : -macroGain);
+			}
+			gain = Math.max(gain, fieldGain);
+		}
+		return gain / INCREMENTAL_SCALE + 1e-6;
+	}
+
+	/**
+	 * Evaluates every child of the position in one pass without making the moves. The table entries of the
+	 * position are summed once, then each child only swaps the entry of the micro field its move is in, and the
+	 * macro entry when the move wins that micro field. Uses the fixed point tables, so the values equal those of
+	 * an accumulator of each child.
+	 * @param id : player making the moves, which must be available moves of the position
+	 * @param heuristics : receives the value of each child for the bot
+	 */
+	public void evaluateChildren(Field field, int id, int[] moves, int numMoves, int botId, double[] heuristics) {
+		int macroState = field.getMacroState();
+		long base = fixedMacroTable[macroState];
+		for (int i = 0; i < 9; i++) {
+			base += fixedMicroTables[i][field.getMicroState(i)];
+		}
+		double scale = (botId == 1 ? 1 : -1) / INCREMENTAL_SCALE;
+		for (int i = 0; i < numMoves; i++) {
+			int macro = Field.getMacroIndex(moves[i]);
+			int state = field.getMicroState(macro);
+			int next = state + id * MicroField.POW3[Field.getBitIndex(moves[i])];
+			long value = base + fixedMicroTables[macro][next] - fixedMicroTables[macro][state];
+			if (MicroField.RESULT[next] == id) // moves are only made in open micro fields
+				value += fixedMacroTable[macroState + id * MicroField.POW3[macro]] - fixedMacroTable[macroState];
+			heuristics[i] = value * scale + 0.0; // turns -0.0 of player 2 into 0.0, see Evaluation#forBot
+		}
+	}
+
+	/**
+	 * Sum of the fixed point tables over the macro field and every micro field. Make and undo swap the entries
+	 * of the changed micro field, and the macro entry when that micro field changes owner. Being integers, the
+	 * entries are added and subtracted without rounding errors.
+	 */
+	private class TableAccumulator implements FieldAccumulator {
+		private long sum;
+
+		@Override
+		public void refresh(Field field) {
+			sum = fixedMacroTable[field.getMacroState()];
+			for (int i = 0; i < 9; i++) {
+				sum += fixedMicroTables[i][field.getMicroState(i)];
+			}
+		}
+
+		@Override
+		public void update(Field field, int macroIndex, int previousMicroState, int microState) {
+			long[] table = fixedMicroTables[macroIndex];
+			sum += table[microState] - table[previousMicroState];
+			// the macro state only changes when the micro field was won or is no longer won
+			int owner = Math.max(MicroField.RESULT[microState], 0);
+			int previousOwner = Math.max(MicroField.RESULT[previousMicroState], 0);
+			if (owner != previousOwner) {
+				int macroState = field.getMacroState();
+				int previousMacroState = macroState + (previousOwner - owner) * MicroField.POW3[macroIndex];
+				sum += fixedMacroTable[macroState] - fixedMacroTable[previousMacroState];
+			}
+		}
+
+		@Override
+		public double evaluate() {
+			return sum / INCREMENTAL_SCALE;
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package com.kayblitz.uttt.bot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.kayblitz.uttt.Field;
+import com.kayblitz.uttt.FieldAccumulator;
+import com.kayblitz.uttt.MicroField;
+
+/**
+ * Small value network evaluating a position for player 1, built like an NNUE so it can be updated on every move.
+ * The inputs are sparse binary features: a stone of a player on a cell, a micro field won by a player and a
+ * tied micro field. The first layer is the sum of the int16 weight rows of the active features, kept in an
+ * {@link Accumulator} that make and undo only add or subtract the changed rows from. The output is the int8
+ * weighted sum of the accumulator clipped to [0, {@link #ACTIVATION_MAX}], so scoring a position costs one small
+ * dot product. Weights have to keep the accumulator within the int16 range and the output within the int range for
+ * every position, which the constructor checks (see {@link #checkRange}) so a bad weight file is rejected rather
+ * than evaluating wrongly.
+ */
+public class ValueNetwork {
+
+	public static final int CELL_FEATURES = 2 * Field.COLS * Field.ROWS, WON_FEATURES = 2 * 9, TIED_FEATURES = 9;
+	public static final int INPUTS = CELL_FEATURES + WON_FEATURES + TIED_FEATURES;
+	/** Largest number of features active at once: a stone on every cell and a result for every micro field **/
+	public static final int MAX_ACTIVE = CELL_FEATURES / 2 + 9;
+	/** Upper bound of the clipped ReLU applied to the accumulator **/
+	public static final int ACTIVATION_MAX = 127;
+	/** Evaluation units per logit of the probability that player 1 wins, the scale networks are trained to **/
+	public static final double UNITS_PER_LOGIT = 100;
+	/** Weight file header: "UTTN" and the format version **/
+	private static final int MAGIC = 0x5554544E, VERSION = 1;
+
+	private final int hidden;
+	/** First layer biases, indexed [hidden unit] **/
+	private final short[] biases;
+	/** First layer weights, one row of hidden units per feature, indexed [feature * hidden + hidden unit] **/
+	private final short[] weights;
+	/** Output layer weights, indexed [hidden unit] **/
+	private final byte[] outputWeights;
+	private final int outputBias;
+	/** Divisor turning the integer output into evaluation units **/
+	private final float outputScale;
+	/** Scratch accumulator per thread for {@link #evaluate(Field)} **/
+	private final ThreadLocal<Accumulator> scratch = new ThreadLocal<Accumulator>() {
+		@Override
+		protected Accumulator initialValue() {
+			return new Accumulator();
+		}
+	};
+
+	public ValueNetwork(int hidden, short[] biases, short[] weights, byte[] outputWeights, int outputBias,
+			float outputScale) {
+		if (hidden <= 0 || biases.length != hidden || weights.length != INPUTS * hidden
+				|| outputWeights.length != hidden || !(outputScale > 0))
+			throw new RuntimeException("Invalid network dimensions");
+		this.hidden = hidden;
+		this.biases = biases;
+		this.weights = weights;
+		this.outputWeights = outputWeights;
+		this.outputBias = outputBias;
+		this.outputScale = outputScale;
+		checkRange();
+	}
+
+	/**
+	 * Throws if the accumulator of some position could leave the int16 range. Bounds each hidden unit by its bias
+	 * plus, for every cell, the largest or smallest of its rows with no stone, a stone of player 1 or of player 2,
+	 * and for every micro field the same over open, won by either player or tied. Make and undo add the rows one at
+	 * a time and may wrap in between, but the int16 sums wrap back, so only the value of a position matters. Also
+	 * throws if the output, the bias plus every activation times its weight, could leave the int range.
+	 */
+	private void checkRange() {
+		for (int unit = 0; unit < hidden; unit++) {
+			long max = biases[unit], min = biases[unit];
+			for (int macro = 0; macro < 9; macro++) {
+				for (int bit = 0; bit < 9; bit++) {
+					int row1 = getCellFeature(1, macro, bit) * hidden, row2 = getCellFeature(2, macro, bit) * hidden;
+					max += Math.max(0, Math.max(weights[row1 + unit], weights[row2 + unit]));
+					min += Math.min(0, Math.min(weights[row1 + unit], weights[row2 + unit]));
+				}
+				int won1 = weights[getWonFeature(1, macro) * hidden + unit];
+				int won2 = weights[getWonFeature(2, macro) * hidden + unit];
+				int tied = weights[getTiedFeature(macro) * hidden + unit];
+				max += Math.max(0, Math.max(tied, Math.max(won1, won2)));
+				min += Math.min(0, Math.min(tied, Math.min(won1, won2)));
+			}
+			if (max > Short.MAX_VALUE || min < Short.MIN_VALUE)
+				throw new RuntimeException("Network weights can overflow the accumulator of hidden unit " + unit);
+		}
+		long max = outputBias, min = outputBias;
+		for (int unit = 0; unit < hidden; unit++) {
+			max += Math.max(0, outputWeights[unit]) * ACTIVATION_MAX;
+			min += Math.min(0, outputWeights[unit]) * ACTIVATION_MAX;
+		}
+		if (max > Integer.MAX_VALUE || min < Integer.MIN_VALUE)
+			throw new RuntimeException("Network weights can overflow the output");
+	}
+
+	/**
+	 * Reads a weight file: the header, the number of inputs and hidden units, the output scale and bias, then the
+	 * first layer biases and weights as int16 and the output weights as int8, all big endian
+	 */
+	public static ValueNetwork load(String path) {
+		try (InputStream in = new FileInputStream(path)) {
+			return load(in);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read network weights from " + path, e);
+		}
+	}
+
+	/** Reads a network in the format of {@link #load(String)} **/
+	public static ValueNetwork load(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC || data.readInt() != VERSION)
+			throw new RuntimeException("Not a network weight file");
+		if (data.readInt() != INPUTS)
+			throw new RuntimeException("Network weight file has different input features");
+		int hidden = data.readInt();
+		if (hidden <= 0 || hidden > 1 << 16)
+			throw new RuntimeException("Invalid network dimensions");
+		float outputScale = data.readFloat();
+		int outputBias = data.readInt();
+		short[] biases = new short[hidden];
+		for (int i = 0; i < hidden; i++) {
+			biases[i] = data.readShort();
+		}
+		short[] weights = new short[INPUTS * hidden];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = data.readShort();
+		}
+		byte[] outputWeights = new byte[hidden];
+		data.readFully(outputWeights);
+		return new ValueNetwork(hidden, biases, weights, outputWeights, outputBias, outputScale);
+	}
+
+	/** Writes the network in the format of {@link #load(String)} **/
+	public void save(String path) {
+		try (OutputStream out = new FileOutputStream(path)) {
+			save(out);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write network weights to " + path, e);
+		}
+	}
+
+	public void save(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeInt(INPUTS);
+		data.writeInt(hidden);
+		data.writeFloat(outputScale);
+		data.writeInt(outputBias);
+		for (short bias : biases) {
+			data.writeShort(bias);
+		}
+		for (short weight : weights) {
+			data.writeShort(weight);
+		}
+		data.write(outputWeights);
+		data.flush();
+	}
+
+	public static int getCellFeature(int id, int macroIndex, int bitIndex) {
+		return (id - 1) * Field.COLS * Field.ROWS + macroIndex * 9 + bitIndex;
+	}
+
+	public static int getWonFeature(int id, int macroIndex) {
+		return CELL_FEATURES + (id - 1) * 9 + macroIndex;
+	}
+
+	public static int getTiedFeature(int macroIndex) {
+		return CELL_FEATURES + WON_FEATURES + macroIndex;
+	}
+
+	/**
+	 * Writes the features active in the position, the inputs the accumulator sums the rows of
+	 * @param features : receives the features, at least {@link #MAX_ACTIVE} long
+	 * @return the number of features written
+	 */
+	public static int getFeatures(Field field, int[] features) {
+		int n = 0;
+		for (int macro = 0; macro < 9; macro++) {
+			int state = field.getMicroState(macro);
+			for (int i = 0; i < 2; i++) {
+				for (int cells = MicroField.OCCUPIED[i][state]; cells != 0; cells &= cells - 1) {
+					features[n++] = getCellFeature(i + 1, macro, Integer.numberOfTrailingZeros(cells));
+				}
+			}
+			int result = MicroField.RESULT[state];
+			if (result >= 0)
+				features[n++] = result > 0 ? getWonFeature(result, macro) : getTiedFeature(macro);
+		}
+		return n;
+	}
+
+	public int getHidden() {
+		return hidden;
+	}
+
+	/** Returns a new accumulator to set on a Field with {@link Field#setAccumulator(FieldAccumulator)} **/
+	public Accumulator newAccumulator() {
+		return new Accumulator();
+	}
+
+	/** Evaluates the field for player 1 with a full pass over its features, for fields without an accumulator **/
+	public double evaluate(Field field) {
+		Accumulator accumulator = scratch.get();
+		accumulator.refresh(field);
+		return accumulator.evaluate();
+	}
+
+	/** First layer of the network for the position of one Field **/
+	public class Accumulator implements FieldAccumulator {
+		private final short[] values = new short[hidden];
+
+		@Override
+		public void refresh(Field field) {
+			System.arraycopy(biases, 0, values, 0, hidden);
+			for (int i = 0; i < 9; i++) {
+				addMicroField(i, 0, field.getMicroState(i));
+			}
+		}
+
+		@Override
+		public void update(Field field, int macroIndex, int previousMicroState, int microState) {
+			addMicroField(macroIndex, previousMicroState, microState);
+		}
+
+		/** Adds the rows of the features gained from the previous to the current state and removes those lost **/
+		private void addMicroField(int macro, int previousState, int state) {
+			for (int i = 0; i < 2; i++) {
+				int previous = MicroField.OCCUPIED[i][previousState], current = MicroField.OCCUPIED[i][state];
+				for (int added = current & ~previous; added != 0; added &= added - 1) {
+					addRow(getCellFeature(i + 1, macro, Integer.numberOfTrailingZeros(added)), 1);
+				}
+				for (int removed = previous & ~current; removed != 0; removed &= removed - 1) {
+					addRow(getCellFeature(i + 1, macro, Integer.numberOfTrailingZeros(removed)), -1);
+				}
+			}
+			int previousResult = MicroField.RESULT[previousState], result = MicroField.RESULT[state];
+			if (result != previousResult) {
+				if (previousResult >= 0)
+					addRow(previousResult > 0 ? getWonFeature(previousResult, macro) : getTiedFeature(macro), -1);
+				if (result >= 0)
+					addRow(result > 0 ? getWonFeature(result, macro) : getTiedFeature(macro), 1);
+			}
+		}
+
+		private void addRow(int feature, int sign) {
+			int row = feature * hidden;
+			for (int i = 0; i < hidden; i++) {
+				values[i] += sign * weights[row + i];
+			}
+		}
+
+		/** Returns the output of the network for player 1, within (-{@link Evaluation#WIN}, {@link Evaluation#WIN}) **/
+		@Override
+		public double evaluate() {
+			int sum = outputBias;
+			for (int i = 0; i < hidden; i++) {
+				int activation = values[i];
+				activation = activation < 0 ? 0 : (activation > ACTIVATION_MAX ? ACTIVATION_MAX : activation);
+				sum += activation * outputWeights[i];
+			}
+			double heuristic = sum / outputScale;
+			return Math.max(1 - Evaluation.WIN, Math.min(Evaluation.WIN - 1, heuristic));
+		}
+	}
+}
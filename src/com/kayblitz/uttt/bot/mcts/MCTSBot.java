@@ -2,7 +2,11 @@ package com.kayblitz.uttt.bot.mcts;
 
 import com.kayblitz.uttt.Bot;
 import com.kayblitz.uttt.BotParser;
-import com.kayblitz.uttt.Move;
+import com.kayblitz.uttt.EvaluationCache;
+import com.kayblitz.uttt.Field;
+import com.kayblitz.uttt.bot.Evaluation;
+import com.kayblitz.uttt.bot.EvaluationWeights;
+import com.kayblitz.uttt.bot.ValueNetwork;
 
 public class MCTSBot extends Bot {
 
@@ -11,23 +15,65 @@ public class MCTSBot extends Bot {
 			System.err.println("Tree type and simulation type must be given");
 			return;
 		}
-		int treeType = -1, simulationType = -1;
+		int treeType = -1, simulationType = -1, evaluationType = Evaluation.COMPREHENSIVE;
+		long cacheSize = 0;
 		try {
 			treeType = Integer.parseInt(args[0]);
 			simulationType = Integer.parseInt(args[1]);
+			// optional evaluation type of the heuristic trees, comprehensive or network
+			if (args.length > 2)
+				evaluationType = Integer.parseInt(args[2]);
+			// optional evaluation cache size in MB, used by the heuristic trees with the network, 0 for none
+			if (args.length > 3)
+				cacheSize = Long.parseLong(args[3]);
+			// optional weight file of the weighted evaluations, see EvaluationFitter
+			if (args.length > 4)
+				Evaluation.setWeights(EvaluationWeights.load(args[4]));
 		} catch (NumberFormatException e) {
-			System.err.println("Invalid tree or simulation type");
+			System.err.println("Invalid tree type, simulation type, evaluation type or cache size");
 			return;
 		}
-		new BotParser(new MCTSBot(treeType, simulationType)).run();
+		if (evaluationType != Evaluation.COMPREHENSIVE && evaluationType != Evaluation.NETWORK) {
+			System.err.println("Heuristic trees evaluate with type " + Evaluation.COMPREHENSIVE + " or "
+					+ Evaluation.NETWORK);
+			return;
+		}
+		if (evaluationType == Evaluation.NETWORK && !Evaluation.hasNetwork()) {
+			System.err.println("Evaluation type " + evaluationType + " needs network weights in "
+					+ Evaluation.NETWORK_FILE);
+			return;
+		}
+		if (cacheSize > 0 && evaluationType != Evaluation.NETWORK) {
+			System.err.println("The evaluation cache is only used with evaluation type " + Evaluation.NETWORK);
+			return;
+		}
+		EvaluationCache cache = cacheSize > 0 ? new EvaluationCache(cacheSize << 20) : null;
+		new BotParser(new MCTSBot(treeType, simulationType, evaluationType, cache)).run();
 	}
 	
 	private long startTime, limit;
-	private int treeType, simulationType;
+	private int treeType, simulationType, evaluationType;
+	/** Network evaluations of the nodes kept across moves, since every move builds a new tree. Null if not used. **/
+	private EvaluationCache cache;
+	/** Network the cache was filled with, its values are dropped when another one is set **/
+	private ValueNetwork cachedNetwork;
 	
 	public MCTSBot(int treeType, int simulationType) {
+		this(treeType, simulationType, Evaluation.COMPREHENSIVE, null);
+	}
+	
+	/**
+	 * @param evaluationType : evaluation of the heuristic trees, {@link Evaluation#COMPREHENSIVE} or
+	 * {@link Evaluation#NETWORK}
+	 * @param cache : kept across moves for the network evaluations, or null. Only used with the network.
+	 */
+	public MCTSBot(int treeType, int simulationType, int evaluationType, EvaluationCache cache) {
 		this.treeType = treeType;
 		this.simulationType = simulationType;
+		this.evaluationType = evaluationType;
+		if (cache != null && evaluationType != Evaluation.NETWORK)
+			throw new RuntimeException("The evaluation cache is only used with the network evaluation");
+		this.cache = cache;
 	}
 	
 	public long getElapsedTime() {
@@ -35,10 +81,14 @@ public class MCTSBot extends Bot {
 	}
 
 	@Override
-	public Move makeMove(int timebank) {
+	public int makeMove(int timebank) {
 		startTime = System.currentTimeMillis();
+		if (cache != null && Evaluation.getNetwork() != cachedNetwork) {
+			cache.clear(); // values of the previous network
+			cachedNetwork = Evaluation.getNetwork();
+		}
 		if (field.getMoveNum() == 1)
-			return new Move(4, 4); // best first move
+			return Field.getMoveIndex(4, 4); // best first move
 		int size = field.getNumAvailableMoves();
 		if (field.getMoveNum() < 30) {
 			if (size < 4) {
@@ -70,11 +120,13 @@ public class MCTSBot extends Bot {
 		if (treeType == MCTree.UCT_TREE) {
 			tree = new UCTTree(field, sb, MCTree.UCT_TREE, simulationType, botId, opponentId);
 		} else if (treeType == MCTree.UCT_HEURISTIC_TREE) {
-			tree = new UCTHeuristicTree(field, sb, MCTree.UCT_HEURISTIC_TREE, simulationType, botId, opponentId);
+			tree = new UCTHeuristicTree(field, sb, MCTree.UCT_HEURISTIC_TREE, simulationType, botId, opponentId,
+					evaluationType, cache);
 		} else if (treeType == MCTree.RAVE_TREE) {
 			tree = new RAVETree(field, sb, MCTree.RAVE_TREE, simulationType, botId, opponentId);
 		} else if (treeType == MCTree.RAVE_HEURISTIC_TREE) {
-			tree = new RAVEHeuristicTree(field, sb, MCTree.RAVE_HEURISTIC_TREE, simulationType, botId, opponentId);
+			tree = new RAVEHeuristicTree(field, sb, MCTree.RAVE_HEURISTIC_TREE, simulationType, botId, opponentId,
+					evaluationType, cache);
 		}
 		
 		int iterations = 0;
@@ -82,12 +134,16 @@ public class MCTSBot extends Bot {
 			tree.iterate();
 			iterations++;
 		}
-		Move bestMove = tree.getBestMove();
+		int bestMove = tree.getBestMove();
 		tree.log();
+		if (cache != null) {
+			sb.append(cache.toString() + '\n');
+			cache.clearCurrentLog();
+		}
 		float elapsedSeconds = getElapsedTime() / 1000f;
 		sb.append(String.format("Iterations %d, Elapsed %.3f\n", iterations, elapsedSeconds));
 		sb.append("Iterations per second " + (int) (iterations / elapsedSeconds) + '\n');
-		System.err.println(sb.toString());
+		log(sb.toString());
 		
 		return bestMove;
 	}
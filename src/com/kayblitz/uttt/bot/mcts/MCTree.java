@@ -2,8 +2,11 @@ package com.kayblitz.uttt.bot.mcts;
 
 import java.util.Random;
 
+import com.kayblitz.uttt.EvaluationCache;
 import com.kayblitz.uttt.Field;
-import com.kayblitz.uttt.Move;
+import com.kayblitz.uttt.Symmetry;
+import com.kayblitz.uttt.bot.Evaluation;
+import com.kayblitz.uttt.bot.ValueNetwork;
 
 public abstract class MCTree {
 	public static final int UCT_TREE = 0;
@@ -15,6 +18,10 @@ public abstract class MCTree {
 	protected int treeType, simulationType, botId, opponentId;
 	protected Field field;
 	protected StringBuilder sb;
+	/** Reused buffer for the available moves of the node being expanded **/
+	protected int[] moves;
+	/** Reused buffer for the available moves of the playouts, see {@link Simulation} **/
+	protected int[] simulationMoves;
 
 	public MCTree(Field field, StringBuilder sb, int treeType, int simulationType, int botId, int opponentId) {
 		this.field = field;
@@ -24,10 +31,41 @@ public abstract class MCTree {
 		this.botId = botId;
 		this.opponentId = opponentId;
 		rand = new Random(System.currentTimeMillis());
+		moves = new int[Field.COLS * Field.ROWS];
+		simulationMoves = new int[Field.COLS * Field.ROWS];
+	}
+	
+	/**
+	 * Fills the move buffer with the available moves of the field. At the root, moves leading to positions
+	 * symmetric to that of an earlier move are left out since they have the same value.
+	 */
+	protected int getAvailableMoves(boolean isRoot) {
+		int numAvailable = field.getAvailableMoves(moves);
+		return isRoot ? Symmetry.removeSymmetricMoves(field, moves, numAvailable) : numAvailable;
+	}
+	
+	/**
+	 * Evaluates the field for the bot on the scale of the comprehensive evaluation, which the heuristic nodes are
+	 * initialized from. The network is mapped from its probability of winning onto the same range.
+	 */
+	protected double evaluateHeuristic(int evaluationType, EvaluationCache cache) {
+		double heuristic = Evaluation.evaluateField(field, evaluationType, botId, cache);
+		return evaluationType == Evaluation.NETWORK ? toHeuristic(heuristic) : heuristic;
+	}
+	
+	/** Same as {@link #evaluateHeuristic} for the network, read from the accumulator the field maintains **/
+	protected double evaluateHeuristicIncremental() {
+		return toHeuristic(Evaluation.evaluateFieldIncremental(field, botId));
+	}
+	
+	private static double toHeuristic(double network) {
+		double probability = 1 / (1 + Math.exp(-network / ValueNetwork.UNITS_PER_LOGIT));
+		return (2 * probability - 1) * Evaluation.MAX_HEURISTIC_COMP;
 	}
 	
 	public abstract void iterate();
-	public abstract Move getBestMove();
+	/** Returns the cell index of the best move from the root **/
+	public abstract int getBestMove();
 	/** Logs data to the StringBuilder **/
 	public abstract void log();
 }
@@ -1,15 +1,47 @@
 package com.kayblitz.uttt.bot.mcts;
 
-import java.util.ArrayList;
-
+import com.kayblitz.uttt.EvaluationCache;
 import com.kayblitz.uttt.Field;
-import com.kayblitz.uttt.Move;
+import com.kayblitz.uttt.FieldAccumulator;
+import com.kayblitz.uttt.bot.Evaluation;
 
 public class RAVEHeuristicTree extends RAVETree {
 	
+	/** Reused buffer for the evaluations of the children of the node being expanded **/
+	private double[] heuristics;
+	/** {@link Evaluation#COMPREHENSIVE} or {@link Evaluation#NETWORK} **/
+	private int evaluationType;
+	/** Network evaluations of earlier trees, null if not used **/
+	private EvaluationCache cache;
+	/**
+	 * Network state the field maintains while a node is expanded, null with the comprehensive evaluation or a
+	 * cache. It is only set during the expansion so the playouts do not update it on every move.
+	 */
+	private FieldAccumulator accumulator;
+	
 	public RAVEHeuristicTree(Field field, StringBuilder sb, int treeType, int simulationType, int botId, int opponentId) {
+		this(field, sb, treeType, simulationType, botId, opponentId, Evaluation.COMPREHENSIVE, null);
+	}
+	
+	/**
+	 * @param evaluationType : {@link Evaluation#COMPREHENSIVE} or {@link Evaluation#NETWORK}
+	 * @param cache : network evaluations of earlier trees, or null. The comprehensive evaluation scores all children
+	 * in one pass, which is cheaper than probing a cache for each, so the cache is only used with the network.
+	 */
+	public RAVEHeuristicTree(Field field, StringBuilder sb, int treeType, int simulationType, int botId, int opponentId,
+			int evaluationType, EvaluationCache cache) {
 		super(field, sb, treeType, simulationType, botId, opponentId);
-		root = new RAVEHeuristicNode(-1, -1, botId, -1, null, field, botId, opponentId, field.getNumAvailableMoves());
+		if (evaluationType != Evaluation.COMPREHENSIVE && evaluationType != Evaluation.NETWORK)
+			throw new RuntimeException("Invalid heuristic evaluation function");
+		if (cache != null && evaluationType != Evaluation.NETWORK)
+			throw new RuntimeException("The evaluation cache is only used with the network evaluation");
+		this.evaluationType = evaluationType;
+		this.cache = cache;
+		if (evaluationType == Evaluation.NETWORK && cache == null)
+			accumulator = Evaluation.getNetwork().newAccumulator();
+		heuristics = new double[Field.COLS * Field.ROWS];
+		root = new RAVEHeuristicNode(-1, botId, -1, null, evaluateHeuristic(evaluationType, cache),
+				getAvailableMoves(true));
 		root.saveState(field);
 	}
 	
@@ -20,18 +52,32 @@ public class RAVEHeuristicTree extends RAVETree {
 	@Override
 	protected RAVEHeuristicNode expand(RAVENode selected) {
 		selected.restoreState(field); // restore state of node
-		ArrayList<Move> moves = field.getAvailableMoves();
+		// without a cache, the network is updated by each child move rather than evaluated in full
+		if (accumulator != null)
+			field.setAccumulator(accumulator);
+		int numAvailable = getAvailableMoves(selected == root);
+		// the comprehensive evaluation scores all children at once from the state of the node
+		if (evaluationType == Evaluation.COMPREHENSIVE)
+			Evaluation.evaluateChildren(field, Evaluation.COMPREHENSIVE, selected.nextMoveBotId, moves, numAvailable, botId,
+					heuristics);
 		
 		// add all children and select child with highest UCT value to return
 		RAVEHeuristicNode bestChild = null;
 		double bestValue = Integer.MIN_VALUE;
 		double constant = Math.log(selected.n);
-		for (Move move : moves) {
+		for (int i = 0; i < numAvailable; i++) {
 			// add child
-			field.makeMove(move, selected.nextMoveBotId, true); 
+			int move = moves[i];
+			field.makeMove(move, selected.nextMoveBotId, true);
+			int winner = field.getDecidedWinner(); // a decided tie is terminal
+			if (accumulator != null) {
+				heuristics[i] = evaluateHeuristicIncremental();
+			} else if (evaluationType == Evaluation.NETWORK) {
+				heuristics[i] = evaluateHeuristic(evaluationType, cache);
+			}
 			RAVEHeuristicNode child = new RAVEHeuristicNode(move, selected.nextMoveBotId == 1 ? 2 : 1, 
-					field.getWinner(), (RAVEHeuristicNode) selected, field, botId, opponentId, field.getNumAvailableMoves());
-			child.saveState(field);
+					winner, (RAVEHeuristicNode) selected, heuristics[i], field.getNumAvailableMoves());
+			child.saveChildState(field);
 			selected.children.add(child); // add to parent's array of children
 			field.undo();
 			
@@ -46,6 +92,8 @@ public class RAVEHeuristicTree extends RAVETree {
 				bestChild = child;
 			}
 		}
+		if (accumulator != null)
+			field.setAccumulator(null);
 		return bestChild;
 	}
 }
@@ -4,8 +4,6 @@ import java.util.ArrayList;
 
 import com.kayblitz.uttt.Field;
 import com.kayblitz.uttt.FieldState;
-import com.kayblitz.uttt.MacroState;
-import com.kayblitz.uttt.Move;
 
 // We don't extend UCTNode to prevent casting overhead due to UCTNode parent & children or extra memory usage in
 // member variable hiding
@@ -15,26 +13,20 @@ public class RAVENode {
 	public int winner; // -1 if not terminal, 0 if tie, else bot id of winner
 	/** The id of the bot to make the next move from this state **/
 	public int nextMoveBotId;
-	/** Incoming action, move leading to this state **/
-	public Move a;
+	/** Incoming action, cell index (row * Field.COLS + column) of the move leading to this state, -1 at the root **/
+	public int a;
 	public int n, amafN; // num of visits
 	public double q, amafQ; // total reward
 	public double beta;
 	public int numChildren;
 	
-	private FieldState fieldState;
-	private MacroState macroState;
+	private FieldState state;
 	
-	public RAVENode(Move move, int nextMoveBotId, int winner, RAVENode parent, int numChildren) {
-		this(move.column, move.row, nextMoveBotId, winner, parent, numChildren);
-	}
-	public RAVENode(int x, int y, int nextMoveBotId, int winner, RAVENode parent, int numChildren) {
-		a = new Move(x, y);
+	public RAVENode(int move, int nextMoveBotId, int winner, RAVENode parent, int numChildren) {
+		a = move;
 		this.nextMoveBotId = nextMoveBotId;
 		this.winner = winner;
 		this.parent = parent;
-		fieldState = new FieldState();
-		macroState = new MacroState();
 		children = new ArrayList<RAVENode>(numChildren);
 		beta = 1.0;
 		this.numChildren = numChildren;
@@ -69,13 +61,16 @@ public class RAVENode {
 	}
 	
 	public void saveState(Field field) {
-		fieldState.saveState(field.getField());
-		macroState.saveState(field.getMacroField());
+		state = field.saveState();
+	}
+	
+	/** Saves the state of a child made with a saved move, see {@link Field#saveChildState()} **/
+	public void saveChildState(Field field) {
+		state = field.saveChildState();
 	}
 	
 	public void restoreState(Field field) {
-		fieldState.restoreState(field.getField());
-		macroState.restoreState(field.getMacroField());
+		field.restoreState(state);
 	}
 	
 	/** Returns the ratio reward/visits for UCT */
@@ -1,19 +1,22 @@
 package com.kayblitz.uttt.bot.mcts;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import com.kayblitz.uttt.Field;
-import com.kayblitz.uttt.Move;
 
 public class RAVETree extends MCTree {
 	
 	protected RAVENode root;
 	public static double EXPLORATION_CONSTANT = 0.5;
 	public static double RAVE_CONSTANT = 0.1;
+	/** Cells played by each side during the current playout, indexed by cell index **/
+	protected boolean[] botMoves, opponentMoves;
 	
 	public RAVETree(Field field, StringBuilder sb, int treeType, int simulationType, int botId, int opponentId) {
 		super(field, sb, treeType, simulationType, botId, opponentId);
-		root = new RAVENode(-1, -1, botId, -1, null, field.getNumAvailableMoves());
+		botMoves = new boolean[Field.COLS * Field.ROWS];
+		opponentMoves = new boolean[Field.COLS * Field.ROWS];
+		root = new RAVENode(-1, botId, -1, null, getAvailableMoves(true));
 		root.saveState(field);
 	}
 	
@@ -26,8 +29,8 @@ public class RAVETree extends MCTree {
 		// Simulation
 		// Even if the node is terminal we still simulate it because every iteration afterwards
 		// will select the same terminal node if we do not simulate, resulting in an infinite loop
-		ArrayList<Move> botMoves = new ArrayList<Move>(35);
-		ArrayList<Move> opponentMoves = new ArrayList<Move>(35);
+		Arrays.fill(botMoves, false);
+		Arrays.fill(opponentMoves, false);
 		double result = simulate(expanded, botMoves, opponentMoves);
 		// Backpropagation
 		backpropagate(expanded, result, botMoves, opponentMoves);
@@ -81,9 +84,11 @@ public class RAVETree extends MCTree {
 	protected RAVENode expand(RAVENode selected) {
 		selected.restoreState(field); // restore state of node
 		// get next unexplored move
-		Move move = field.getAvailableMoves().get(selected.children.size());
-		field.makeMove(move, selected.nextMoveBotId, false); 
-		RAVENode child = new RAVENode(move, selected.nextMoveBotId == 1 ? 2 : 1, field.getWinner(), 
+		getAvailableMoves(selected == root);
+		int move = moves[selected.children.size()];
+		field.makeMove(move, selected.nextMoveBotId, false);
+		int winner = field.getDecidedWinner(); // a decided tie is terminal
+		RAVENode child = new RAVENode(move, selected.nextMoveBotId == 1 ? 2 : 1, winner, 
 				selected, field.getNumAvailableMoves());
 		child.saveState(field);
 		selected.children.add(child); // add to parent's array of children
@@ -94,19 +99,21 @@ public class RAVETree extends MCTree {
 	/** 
 	 * Simulates a play from the Node to an end state and returns a value, WIN(1), TIE(0.5), LOSS(0).
 	 */
-	protected double simulate(RAVENode expanded, ArrayList<Move> botMoves, ArrayList<Move> opponentMoves) {
+	protected double simulate(RAVENode expanded, boolean[] botMoves, boolean[] opponentMoves) {
 		switch (simulationType) {
 		case Simulation.RAVE_RANDOM:
-			return Simulation.simulateRAVERandom(field, expanded, botMoves, opponentMoves, botId, opponentId);
+			return Simulation.simulateRAVERandom(field, simulationMoves, expanded, botMoves, opponentMoves, botId,
+					opponentId);
 		case Simulation.RAVE_RANDOM_EPT:
-			return Simulation.simulateRAVERandomEPT(field, expanded, botMoves, opponentMoves, botId, opponentId);
+			return Simulation.simulateRAVERandomEPT(field, simulationMoves, expanded, botMoves, opponentMoves, botId,
+					opponentId);
 		default:
 			throw new RuntimeException("Invalid RAVE simulation type");
 		}
 	}
 	
 	/** Updates visited nodes: nodes from the expanded node to the root node */
-	protected void backpropagate(RAVENode expanded, double result, ArrayList<Move> botMoves, ArrayList<Move> opponentMoves) {
+	protected void backpropagate(RAVENode expanded, double result, boolean[] botMoves, boolean[] opponentMoves) {
 		while (expanded != null) {
 			// standard UCT update
 			expanded.updateUCT(result, botId, opponentId);
@@ -119,22 +126,14 @@ public class RAVETree extends MCTree {
 				for (RAVENode sibling : expanded.parent.children) {
 					if (sibling != expanded) { // check for self
 						if (sibling.nextMoveBotId == opponentId) { // our bot made this node
-							for (Move move : botMoves) { // therefore check in bot moves
-								if (move.row == sibling.a.row && move.column == sibling.a.column) {
-									// matches one of our bot's moves
-									sibling.updateAMAF(result, botId, opponentId);
-									updateBeta(sibling);
-									break;
-								}
+							if (botMoves[sibling.a]) { // matches one of our bot's moves
+								sibling.updateAMAF(result, botId, opponentId);
+								updateBeta(sibling);
 							}
 						} else { // opponent made this node
-							for (Move move : opponentMoves) { // therefore check in opponent moves
-								if (move.row == sibling.a.row && move.column == sibling.a.column) {
-									// matches one of our opponent's moves
-									sibling.updateAMAF(result, botId, opponentId);
-									updateBeta(sibling);
-									break;
-								}
+							if (opponentMoves[sibling.a]) { // matches one of our opponent's moves
+								sibling.updateAMAF(result, botId, opponentId);
+								updateBeta(sibling);
 							}
 						}
 					}
@@ -155,7 +154,7 @@ public class RAVETree extends MCTree {
 	 * reward as the most visited node is the more promising one.
 	 */
 	@Override
-	public Move getBestMove() {		
+	public int getBestMove() {		
 		RAVENode maxRobustChild = null;
 		double maxRobustQ = Integer.MIN_VALUE;
 		double maxRobustN = Integer.MIN_VALUE;
@@ -165,7 +164,7 @@ public class RAVETree extends MCTree {
 		for (RAVENode child : root.children) {
 			double adjustedQ = (1 - child.beta) * child.q + child.beta * child.amafQ;
 			double adjustedN = (1 - child.beta) * child.n + child.beta * child.amafN;
-			sb.append(String.format("Root child %d, %d || %.1f / %.1f\n", child.a.column, child.a.row, adjustedQ, adjustedN));
+			sb.append(String.format("Root child %d, %d || %.1f / %.1f\n", child.a % Field.COLS, child.a / Field.COLS, adjustedQ, adjustedN));
 			// robust child
 			double adjRobustChildN = (1 - robustChild.beta) * robustChild.n + robustChild.beta * robustChild.amafN;
 			if (Double.compare(adjustedN, adjRobustChildN) > 0) {
@@ -194,10 +193,10 @@ public class RAVETree extends MCTree {
 		sb.append(String.format("Max %.1f, Robust %.1f\n", maxRobustQ, maxRobustN));
 		
 		if (maxRobustChild != null) {
-			sb.append(String.format("Max-robust child returned %d, %d\n", maxRobustChild.a.column, maxRobustChild.a.row));
+			sb.append(String.format("Max-robust child returned %d, %d\n", maxRobustChild.a % Field.COLS, maxRobustChild.a / Field.COLS));
 			return maxRobustChild.a;
 		} else {
-			sb.append(String.format("Robust child returned %d, %d\n", robustChild.a.column, robustChild.a.row));
+			sb.append(String.format("Robust child returned %d, %d\n", robustChild.a % Field.COLS, robustChild.a / Field.COLS));
 			return robustChild.a;
 		}
 	}
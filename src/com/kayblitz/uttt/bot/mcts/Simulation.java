@@ -1,15 +1,15 @@
 package com.kayblitz.uttt.bot.mcts;
 
-import java.util.ArrayList;
 import java.util.Random;
 
 import com.kayblitz.uttt.Field;
-import com.kayblitz.uttt.Move;
 import com.kayblitz.uttt.bot.Evaluation;
 
 /**
  * Includes various functions for simulating plays for MCTS from the expanded node until a terminal state is 
- * reached. Returns WIN(1), TIE(0.5), or LOSS(0).
+ * reached. Returns WIN(1), TIE(0.5), or LOSS(0). Playouts stop early as a tie once no macro line can be 
+ * completed anymore, see {@link Field#getDecidedWinner()}. The moves buffer passed in is the caller's, one per
+ * tree, so trees can simulate in parallel.
  * @author Kenneth
  *
  */
@@ -30,17 +30,15 @@ public class Simulation {
 	private static final double LOSS = 0;
 	
 	private static final Random rand = new Random(System.currentTimeMillis());
-	
 	/** Simulates by playing random moves. Field will be left in a terminal state. */
-	public static double simulateUCTRandom(Field field, UCTNode expanded, int botId, int opponentId) {
+	public static double simulateUCTRandom(Field field, int[] moves, UCTNode expanded, int botId, int opponentId) {
 		expanded.restoreState(field);
 		int winner = expanded.winner;
 		int currentId = expanded.nextMoveBotId;
 		while (winner < 0) {
-			ArrayList<Move> moves = field.getAvailableMoves();
-			Move move = moves.get(rand.nextInt(moves.size()));
-			field.makeMove(move, currentId, false);
-			winner = field.getWinner();
+			int numAvailable = field.getAvailableMoves(moves);
+			field.makeMove(moves[rand.nextInt(numAvailable)], currentId, false);
+			winner = field.getDecidedWinner();
 			currentId = currentId == 1 ? 2 : 1;
 		}
 		if (winner == botId) {
@@ -55,27 +53,21 @@ public class Simulation {
 	/** Simulates by playing random moves, but both sides will play the winning move when possible.
 	 * The field will be left in a terminal state.
 	 */
-	public static double simulateUCTWinFirstRandom(Field field, UCTNode expanded, int botId, int opponentId) {
+	public static double simulateUCTWinFirstRandom(Field field, int[] moves, UCTNode expanded, int botId, int opponentId) {
 		expanded.restoreState(field);
 		int winner = expanded.winner;
 		int currentId = expanded.nextMoveBotId;
 		while (winner < 0) {
-			ArrayList<Move> moves = field.getAvailableMoves();
 			// see if there is a winning move, if so play it
-			for (Move move : moves) {
-				field.makeMove(move, currentId, true);
-				winner = field.getWinner();
-				if (winner > 0) {
-					field.pop();
-					return currentId == botId ? WIN : LOSS;
-				} else {
-					field.undo();
-				}
+			int winningMove = field.getWinningMove(currentId);
+			if (winningMove >= 0) {
+				field.makeMove(winningMove, currentId, false);
+				return currentId == botId ? WIN : LOSS;
 			}
 			// no winning move, just play a random move
-			Move move = moves.get(rand.nextInt(moves.size()));
-			field.makeMove(move, currentId, false);
-			winner = field.getWinner();
+			int numAvailable = field.getAvailableMoves(moves);
+			field.makeMove(moves[rand.nextInt(numAvailable)], currentId, false);
+			winner = field.getDecidedWinner();
 			currentId = currentId == 1 ? 2 : 1;
 		}
 		if (winner == botId) {
@@ -87,17 +79,17 @@ public class Simulation {
 		}
 	}
 	
-	public static double simulateRAVERandom(Field field, RAVENode expanded, ArrayList<Move> botMoves,
-			ArrayList<Move> opponentMoves, int botId, int opponentId) {
+	public static double simulateRAVERandom(Field field, int[] moves, RAVENode expanded, boolean[] botMoves,
+			boolean[] opponentMoves, int botId, int opponentId) {
 		expanded.restoreState(field);
 		int winner = expanded.winner;
 		int currentId = expanded.nextMoveBotId;
 		while (winner < 0) {
-			ArrayList<Move> moves = field.getAvailableMoves();
-			Move move = moves.get(rand.nextInt(moves.size()));
+			int numAvailable = field.getAvailableMoves(moves);
+			int move = moves[rand.nextInt(numAvailable)];
 			field.makeMove(move, currentId, false);
+			winner = field.getDecidedWinner();
 			addMove(move, currentId, botMoves, opponentMoves, botId, opponentId);
-			winner = field.getWinner();
 			currentId = currentId == 1 ? 2 : 1;
 		}
 		if (winner == botId) {
@@ -109,25 +101,24 @@ public class Simulation {
 		}
 	}
 	
-	private static void addMove(Move move, int currentId, ArrayList<Move> botMoves, ArrayList<Move> opponentMoves,
+	private static void addMove(int move, int currentId, boolean[] botMoves, boolean[] opponentMoves,
 			int botId, int opponentId) {
 		if (currentId == botId) {
-			botMoves.add(move);
+			botMoves[move] = true;
 		} else {
-			opponentMoves.add(move);
+			opponentMoves[move] = true;
 		}
 	}
 	
-	public static double simulateUCTRandomEPT(Field field, UCTNode expanded, int botId, int opponentId) {
+	public static double simulateUCTRandomEPT(Field field, int[] moves, UCTNode expanded, int botId, int opponentId) {
 		expanded.restoreState(field);
 		int winner = expanded.winner;
 		int currentId = expanded.nextMoveBotId;
 		int numMoves = 0;
 		while (winner < 0) {
-			ArrayList<Move> moves = field.getAvailableMoves();
-			Move move = moves.get(rand.nextInt(moves.size()));
-			field.makeMove(move, currentId, false);
-			winner = field.getWinner();
+			int numAvailable = field.getAvailableMoves(moves);
+			field.makeMove(moves[rand.nextInt(numAvailable)], currentId, false);
+			winner = field.getDecidedWinner();
 			currentId = currentId == 1 ? 2 : 1;
 			if (++numMoves == UCT_EPT_MAX_MOVES) {
 				double heuristic = Evaluation.evaluateFieldComprehensive(field, botId, opponentId);
@@ -149,16 +140,17 @@ public class Simulation {
 		}
 	}
 	
-	public static double simulateRAVERandomEPT(Field field, RAVENode expanded, ArrayList<Move> botMoves,
-			ArrayList<Move> opponentMoves, int botId, int opponentId) {
+	public static double simulateRAVERandomEPT(Field field, int[] moves, RAVENode expanded, boolean[] botMoves,
+			boolean[] opponentMoves, int botId, int opponentId) {
 		expanded.restoreState(field);
 		int winner = expanded.winner;
 		int currentId = expanded.nextMoveBotId;
 		int numMoves = 0;
 		while (winner < 0) {
-			ArrayList<Move> moves = field.getAvailableMoves();
-			Move move = moves.get(rand.nextInt(moves.size()));
+			int numAvailable = field.getAvailableMoves(moves);
+			int move = moves[rand.nextInt(numAvailable)];
 			field.makeMove(move, currentId, false);
+			winner = field.getDecidedWinner();
 			addMove(move, currentId, botMoves, opponentMoves, botId, opponentId);
 			if (++numMoves == RAVE_EPT_MAX_MOVES) {
 				double heuristic = Evaluation.evaluateFieldComprehensive(field, botId, opponentId);
@@ -170,7 +162,6 @@ public class Simulation {
 					return TIE;
 				}
 			}
-			winner = field.getWinner();
 			currentId = currentId == 1 ? 2 : 1;
 		}
 		if (winner == botId) {
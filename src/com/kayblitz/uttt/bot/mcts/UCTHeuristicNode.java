@@ -1,7 +1,5 @@
 package com.kayblitz.uttt.bot.mcts;
 
-import com.kayblitz.uttt.Field;
-import com.kayblitz.uttt.Move;
 import com.kayblitz.uttt.bot.Evaluation;
 
 public class UCTHeuristicNode extends UCTNode {
@@ -13,13 +11,9 @@ public class UCTHeuristicNode extends UCTNode {
 	/** The value of the state this node is in according to the evaluation function **/
 	public double heuristic;
 	
-	public UCTHeuristicNode(Move move, int nextMoveBotId, int winner, UCTHeuristicNode parent, 
-			Field field, int botId, int opponentId, int numChildren) {
-		this(move.column, move.row, nextMoveBotId, winner, parent, field, botId, opponentId, numChildren);
-	}
-	
-	public UCTHeuristicNode(int x, int y, int nextMoveBotId, int winner, UCTHeuristicNode parent, Field field, int botId, int opponentId, int numChildren) {
-		super(x, y, nextMoveBotId, winner, parent, numChildren);
+	/** @param evaluation : evaluation of the state for the bot, on the scale of the comprehensive evaluation **/
+	public UCTHeuristicNode(int move, int nextMoveBotId, int winner, UCTHeuristicNode parent, double evaluation, int numChildren) {
+		super(move, nextMoveBotId, winner, parent, numChildren);
 		// update initial values with heuristic evaluation function and heuristic confidence function
 		// We are going to offset the heuristic value so it is always positive by adding the max possible value
 		
@@ -31,7 +25,7 @@ public class UCTHeuristicNode extends UCTNode {
 			heuristic = Evaluation.evaluateFieldAdvancedOptimized(field, botId, opponentId) + Evaluation.MAX_HEURISTIC_OPTIMIZED;
 			TRANSPOSITION_TABLE.storeHeuristic(zobristKey, heuristic);
 		}*/
-		heuristic = Evaluation.evaluateFieldComprehensive(field, botId, opponentId) + Evaluation.MAX_HEURISTIC_COMP;
+		heuristic = evaluation + Evaluation.MAX_HEURISTIC_COMP;
 		heuristic *= HEURISTIC_MULTIPLIER;
 		q = heuristic;
 		n = (int) (q * UCT_CONFIDENCE);
@@ -1,7 +1,6 @@
 package com.kayblitz.uttt.bot.mcts;
 
 import com.kayblitz.uttt.Field;
-import com.kayblitz.uttt.Move;
 
 public class UCTTree extends MCTree {
 	
@@ -10,7 +9,7 @@ public class UCTTree extends MCTree {
 	
 	public UCTTree(Field field, StringBuilder sb, int treeType, int simulationType, int botId, int opponentId) {
 		super(field, sb, treeType, simulationType, botId, opponentId);
-		root = new UCTNode(-1, -1, botId, -1, null, field.getNumAvailableMoves());
+		root = new UCTNode(-1, botId, -1, null, getAvailableMoves(true));
 		root.saveState(field);
 	}
 	
@@ -73,9 +72,11 @@ public class UCTTree extends MCTree {
 	 */
 	protected UCTNode expand(UCTNode selected) {
 		selected.restoreState(field); // restore state of node
-		Move move = field.getAvailableMoves().get(selected.children.size());
-		field.makeMove(move, selected.nextMoveBotId, false); 
-		UCTNode child = new UCTNode(move, selected.nextMoveBotId == 1 ? 2 : 1, field.getWinner(), 
+		getAvailableMoves(selected == root);
+		int move = moves[selected.children.size()];
+		field.makeMove(move, selected.nextMoveBotId, false);
+		int winner = field.getDecidedWinner(); // a decided tie is terminal
+		UCTNode child = new UCTNode(move, selected.nextMoveBotId == 1 ? 2 : 1, winner, 
 				selected, field.getNumAvailableMoves());
 		child.saveState(field);
 		selected.children.add(child); // add to parent's array of children
@@ -89,11 +90,11 @@ public class UCTTree extends MCTree {
 	private double simulate(UCTNode expanded) {
 		switch (simulationType) {
 		case Simulation.UCT_RANDOM:
-			return Simulation.simulateUCTRandom(field, expanded, botId, opponentId);
+			return Simulation.simulateUCTRandom(field, simulationMoves, expanded, botId, opponentId);
 		case Simulation.UCT_WIN_FIRST_RANDOM:
-			return Simulation.simulateUCTWinFirstRandom(field, expanded, botId, opponentId);
+			return Simulation.simulateUCTWinFirstRandom(field, simulationMoves, expanded, botId, opponentId);
 		case Simulation.UCT_RANDOM_EPT:
-			return Simulation.simulateUCTRandomEPT(field, expanded, botId, opponentId);
+			return Simulation.simulateUCTRandomEPT(field, simulationMoves, expanded, botId, opponentId);
 		default:
 			throw new RuntimeException("Invalid UCT simulation type");
 		}
@@ -113,7 +114,7 @@ public class UCTTree extends MCTree {
 	 * reward as the most visited node is the more promising one.
 	 */
 	@Override
-	public Move getBestMove() {		
+	public int getBestMove() {		
 		UCTNode maxRobustChild = null;
 		double maxRobustQ = Integer.MIN_VALUE;
 		int maxRobustN = Integer.MIN_VALUE;
@@ -121,7 +122,7 @@ public class UCTTree extends MCTree {
 		UCTNode robustChild = root.children.get(0);
 		
 		for (UCTNode child : root.children) {
-			sb.append(String.format("Root child %d, %d || %.1f / %d\n", child.a.column, child.a.row, child.q, child.n));
+			sb.append(String.format("Root child %d, %d || %.1f / %d\n", child.a % Field.COLS, child.a / Field.COLS, child.q, child.n));
 			// robust child
 			if (child.n > robustChild.n) {
 				robustChild = child;
@@ -149,10 +150,10 @@ public class UCTTree extends MCTree {
 		sb.append(String.format("Max %.1f, Robust %d\n", maxRobustQ, maxRobustN));
 		
 		if (maxRobustChild != null) {
-			sb.append(String.format("Max-robust child returned %d, %d\n", maxRobustChild.a.column, maxRobustChild.a.row));
+			sb.append(String.format("Max-robust child returned %d, %d\n", maxRobustChild.a % Field.COLS, maxRobustChild.a / Field.COLS));
 			return maxRobustChild.a;
 		} else {
-			sb.append(String.format("Robust child returned %d, %d\n", robustChild.a.column, robustChild.a.row));
+			sb.append(String.format("Robust child returned %d, %d\n", robustChild.a % Field.COLS, robustChild.a / Field.COLS));
 			return robustChild.a;
 		}
 	}